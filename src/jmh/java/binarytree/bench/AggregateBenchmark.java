@@ -0,0 +1,68 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/* Whole-tree aggregates over a 1M-key tree, run in a fork-join pool of
+ * `parallelism` workers: sum() and countInRange() over half the keys,
+ * against a plain single-threaded iterator loop (iteratorSum). Speedup
+ * over parallelism=1 is bounded by the cores of the machine. One calling
+ * thread; the thread sweep does not apply, run with -t 1:
+ * java -jar target/benchmarks.jar AggregateBenchmark -t 1 */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregateBenchmark {
+    @Param({"1000000"})
+    public int keys;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    BinaryTree tree;
+    ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree();
+        for (int key : KeyDistribution.UNIFORM.generate(2 * keys, 2 * keys, 5)) {
+            if (tree.size() == keys) {
+                break;
+            }
+            tree.insert(key);
+        }
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public long sum() throws InterruptedException, ExecutionException {
+        return pool.submit(() -> tree.sum()).get();
+    }
+
+    @Benchmark
+    public long countInRange() throws InterruptedException, ExecutionException {
+        return pool.submit(() -> tree.countInRange(keys / 2, 3 * keys / 2)).get();
+    }
+
+    @Benchmark
+    public long iteratorSum() {
+        long sum = 0;
+        for (PrimitiveIterator.OfInt it = tree.iterator(); it.hasNext(); ) {
+            sum += it.nextInt();
+        }
+        return sum;
+    }
+}
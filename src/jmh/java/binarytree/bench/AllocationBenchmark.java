@@ -0,0 +1,76 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.ContentionPolicy;
+import binarytree.KeyOrder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/* Bytes allocated per operation on a single thread. Run through main (or with
+ * -prof gc) and read gc.alloc.rate.norm: lookups and updates that don't change
+ * the tree should report ~0 B/op, insertDelete one Node per pair unless
+ * the tree recycles nodes. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+    static final int KEYS = 1 << 16;
+
+    @Param({"false", "true"})
+    public boolean recycle;
+
+    BinaryTree tree;
+    int[] keys;
+    int next;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree(ContentionPolicy.SPIN, KeyOrder.NATURAL, recycle);
+        keys = KeyDistribution.UNIFORM.generate(KEYS, 2 * KEYS, 7);
+        for (int key : keys) {
+            // even keys only, so every odd key is a guaranteed miss
+            tree.insert(key & ~1);
+        }
+    }
+
+    int nextKey() {
+        return keys[next++ & (KEYS - 1)];
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return tree.contains(nextKey());
+    }
+
+    @Benchmark
+    public boolean insertExisting() {
+        return tree.insert(nextKey() & ~1);
+    }
+
+    @Benchmark
+    public void deleteMissing() {
+        tree.delete(nextKey() | 1);
+    }
+
+    @Benchmark
+    public boolean insertDelete() {
+        int key = nextKey() | 1;
+        boolean inserted = tree.insert(key);
+        tree.delete(key);
+        return inserted;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
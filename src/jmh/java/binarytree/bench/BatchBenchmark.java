@@ -0,0 +1,77 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/* One batch of keys against a tree of 1M random keys: the batch APIs versus
+ * the same keys fed one at a time. Scores are per batch. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+    static final int RANGE = 1 << 24;
+
+    @Param({"1000", "100000"})
+    public int batchSize;
+
+    BinaryTree tree;
+    int[] batch;
+    boolean[] result;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree();
+        for (int key : KeyDistribution.UNIFORM.generate(1_000_000, RANGE, 5)) {
+            tree.insert(2 * key);
+        }
+        batch = KeyDistribution.UNIFORM.generate(batchSize, 2 * RANGE, 6);
+        result = new boolean[batchSize];
+    }
+
+    @Benchmark
+    public int containsOneByOne() {
+        int hits = 0;
+        for (int key : batch) {
+            hits += tree.contains(key) ? 1 : 0;
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int containsAll() {
+        return tree.containsAll(batch, result);
+    }
+
+    @Benchmark
+    public int parallelContainsAll() {
+        return tree.parallelContainsAll(batch, result);
+    }
+
+    /* Odd keys are never in the base tree, so every round inserts and then
+     * removes the whole batch. */
+    @Benchmark
+    public int insertDeleteOneByOne() {
+        int changed = 0;
+        for (int key : batch) {
+            changed += tree.insert(key | 1) ? 1 : 0;
+        }
+        for (int key : batch) {
+            changed += tree.delete(key | 1) ? 1 : 0;
+        }
+        return changed;
+    }
+
+    @Benchmark
+    public int insertDeleteAll() {
+        int[] odd = batch.clone();
+        for (int i = 0; i < odd.length; i++) {
+            odd[i] |= 1;
+        }
+        return tree.insertAll(odd) + tree.deleteAll(odd);
+    }
+}
@@ -0,0 +1,10 @@
+package binarytree.bench;
+
+/* Common face of the set implementations the benchmarks drive. */
+public interface BenchSet {
+    boolean insert(int v);
+
+    void delete(int v);
+
+    boolean contains(int v);
+}
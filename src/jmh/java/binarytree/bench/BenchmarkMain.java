@@ -0,0 +1,46 @@
+package binarytree.bench;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Entry point of benchmarks.jar. Accepts the usual JMH options; unless -t is
+ * given, every benchmark is run once per thread count in -Dbench.threads
+ * (default 1,2,4,...,64 like Main) and all results go to one JSON file
+ * (target/jmh-result.json unless -rff says otherwise). */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp() || cli.shouldList() || cli.shouldListWithParams()
+                || cli.shouldListProfilers() || cli.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        int[] threadCounts;
+        if (cli.getThreads().hasValue()) {
+            threadCounts = new int[]{cli.getThreads().get()};
+        } else {
+            threadCounts = Arrays.stream(System.getProperty("bench.threads", "1,2,4,8,16,32,64").split(","))
+                    .mapToInt(s -> Integer.parseInt(s.trim()))
+                    .toArray();
+        }
+        List<RunResult> results = new ArrayList<>();
+        for (int threads : threadCounts) {
+            results.addAll(new Runner(new OptionsBuilder()
+                    .parent(cli)
+                    .threads(threads)
+                    .build()).run());
+        }
+        ResultFormatType format = cli.getResultFormat().orElse(ResultFormatType.JSON);
+        String file = cli.getResult().orElse("target/jmh-result." + format.toString().toLowerCase());
+        ResultFormatFactory.getInstance(format, file).writeOut(results);
+        System.out.println("Results written to " + file);
+    }
+}
@@ -0,0 +1,50 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/* Time to load a tree from scratch: bulk load from sorted and from shuffled
+ * keys, against inserting the shuffled keys one by one (inserting them
+ * sorted would build a chain and take quadratic time). */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BulkLoadBenchmark {
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    int[] shuffled;
+    int[] sorted;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        shuffled = KeyDistribution.UNIFORM.generate(size, Integer.MAX_VALUE, 9);
+        sorted = shuffled.clone();
+        Arrays.sort(sorted);
+    }
+
+    @Benchmark
+    public BinaryTree buildSorted() {
+        return BinaryTree.build(sorted);
+    }
+
+    @Benchmark
+    public BinaryTree buildShuffled() {
+        return BinaryTree.build(shuffled);
+    }
+
+    @Benchmark
+    public BinaryTree insertShuffled() {
+        BinaryTree tree = new BinaryTree();
+        for (int key : shuffled) {
+            tree.insert(key);
+        }
+        return tree;
+    }
+}
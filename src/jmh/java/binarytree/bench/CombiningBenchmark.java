@@ -0,0 +1,91 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.CombiningBinaryTree;
+import binarytree.IntSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Hotspot traffic: hotOps of the operations go to the first hotKeys keys
+ * of a 1M range, the rest anywhere, with updateRatio inserts plus as many
+ * deletes. Compares the plain tree with CombiningBinaryTree in front of
+ * it; the combining counters are printed after each trial. Thread counts
+ * are swept by BenchmarkMain. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class CombiningBenchmark {
+    static final int RANGE = 1 << 20;
+
+    @Param({"false", "true"})
+    public boolean combining;
+
+    @Param({"1024"})
+    public int hotKeys;
+
+    @Param({"0.9"})
+    public double hotOps;
+
+    @Param({"0.4"})
+    public double updateRatio;
+
+    IntSet set;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        BinaryTree tree = new BinaryTree();
+        for (int key : KeyDistribution.UNIFORM.generate(RANGE / 2, RANGE, 11)) {
+            tree.insert(key);
+        }
+        set = (combining ? new CombiningBinaryTree(tree) : tree);
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        if (set instanceof CombiningBinaryTree) {
+            CombiningBinaryTree c = (CombiningBinaryTree) set;
+            System.out.printf("%ncombined %d updates in %d passes, %d direct%n",
+                    c.getCombinedOperations(), c.getCombinePasses(), c.getDirectOperations());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ops {
+        int[] keys;
+        byte[] ops;
+        int next;
+
+        @Setup(Level.Trial)
+        public void generate(CombiningBenchmark bench) {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            keys = new int[SetBenchmark.OPS_PER_THREAD];
+            ops = new byte[SetBenchmark.OPS_PER_THREAD];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = (random.nextDouble() < bench.hotOps ? random.nextInt(bench.hotKeys)
+                        : bench.hotKeys + random.nextInt(RANGE - bench.hotKeys));
+                double p = random.nextDouble();
+                ops[i] = (p < bench.updateRatio ? SetBenchmark.INSERT
+                        : p < 2 * bench.updateRatio ? SetBenchmark.DELETE : SetBenchmark.CONTAINS);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean operation(Ops ops) {
+        int i = ops.next++ & (SetBenchmark.OPS_PER_THREAD - 1);
+        int key = ops.keys[i];
+        switch (ops.ops[i]) {
+            case SetBenchmark.INSERT:
+                return set.insert(key);
+            case SetBenchmark.DELETE:
+                return set.delete(key);
+            default:
+                return set.contains(key);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Latency of a single contains() on trees far larger than the caches, where
+ * every level of the search is a likely miss. Half of the lookups hit. Run
+ * single-threaded, and with -prof perfnorm where perf is available to see
+ * the misses per lookup (L1-dcache-load-misses, LLC-load-misses):
+ * java -jar target/benchmarks.jar ContainsLatencyBenchmark -t 1 -prof perfnorm
+ * 100M keys need a larger heap: -p keys=100000000 -jvmArgsAppend -Xmx6g */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ContainsLatencyBenchmark {
+    static final int LOOKUPS = 1 << 20;
+
+    @Param({"1000000", "10000000"})
+    public int keys;
+
+    BinaryTree tree;
+    int[] lookups;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree();
+        SplittableRandom random = new SplittableRandom(13);
+        // keys in [0, 2 * keys), so a uniform lookup hits half the time
+        while (tree.size() < keys) {
+            tree.insert(random.nextInt(2 * keys));
+        }
+        lookups = KeyDistribution.UNIFORM.generate(LOOKUPS, 2 * keys, 17);
+        System.gc();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public boolean contains(Cursor cursor) {
+        return tree.contains(lookups[cursor.next++ & (LOOKUPS - 1)]);
+    }
+}
@@ -0,0 +1,61 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.ContentionPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Update-heavy traffic on a small, hot key range, meant to be run with twice
+ * as many threads as cores (main does that) to compare the contention
+ * policies once lock holders get descheduled. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ContentionBenchmark {
+    @Param({"SPIN", "BACKOFF", "PARK"})
+    public ContentionPolicy policy;
+
+    @Param({"1000"})
+    public int keyRange;
+
+    BinaryTree tree;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree(policy);
+        for (int key : KeyDistribution.UNIFORM.generate(keyRange, keyRange, 3)) {
+            tree.insert(key);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%n%s: insert retries %d, delete retries %d, read lock retries %d%n",
+                policy, tree.getInsertRetries(), tree.getDeleteRetries(), tree.getReadLockRetries());
+    }
+
+    @Benchmark
+    public boolean update() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = random.nextInt(keyRange);
+        if (random.nextBoolean()) {
+            return tree.insert(key);
+        }
+        tree.delete(key);
+        return false;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ContentionBenchmark.class.getSimpleName())
+                .threads(2 * Runtime.getRuntime().availableProcessors())
+                .build()).run();
+    }
+}
@@ -0,0 +1,69 @@
+package binarytree.bench;
+
+import binarytree.DurableBinaryTree;
+import binarytree.SyncPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/* Durable insert throughput per SyncPolicy. Every operation inserts a key no
+ * thread has inserted before, so every one is logged. Thread counts are
+ * swept by BenchmarkMain; with BATCHED, more threads share each fsync.
+ * The log goes to a temp directory, -Dbench.dir to put it elsewhere. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DurableInsertBenchmark {
+    @Param({"PER_OP", "BATCHED", "PERIODIC"})
+    public SyncPolicy sync;
+
+    Path dir;
+    DurableBinaryTree tree;
+    final AtomicInteger threads = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        String parent = System.getProperty("bench.dir");
+        dir = (parent == null ? Files.createTempDirectory("wal") : Files.createTempDirectory(Path.of(parent), "wal"));
+        tree = DurableBinaryTree.open(dir, sync);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        tree.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        int next;
+
+        @Setup(Level.Trial)
+        public void start(DurableInsertBenchmark bench) {
+            // thread i takes i, i + 64, i + 128, ...
+            next = bench.threads.getAndIncrement();
+        }
+    }
+
+    @Benchmark
+    public boolean insert(Keys keys) {
+        // multiplying by an odd constant is a bijection, so keys stay distinct
+        // but do not arrive in ascending order
+        int key = keys.next * 0x9E3779B1;
+        keys.next += 64;
+        return tree.insert(key);
+    }
+}
@@ -0,0 +1,82 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.IntSet;
+import binarytree.OffHeapBinaryTree;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/* Retained heap of a tree holding -Dkeys distinct keys (default 1M),
+ * measured as the used-heap difference around the build after full GCs,
+ * plus what the collector pays for it: the pause of a full GC with the tree
+ * live, and the GC time of a 50/50 insert/delete churn over the same keys
+ * (which allocates nodes on the heap, or recycles them off it).
+ * -Dimpl=BINARY_TREE (default) or OFF_HEAP_BINARY_TREE.
+ * java -Dkeys=10000000 -cp target/benchmarks.jar binarytree.bench.Footprint */
+public class Footprint {
+    public static void main(String[] args) {
+        int count = Integer.getInteger("keys", 1_000_000);
+        String impl = System.getProperty("impl", "BINARY_TREE");
+        int[] keys = KeyDistribution.UNIFORM.generate(4 * count, Integer.MAX_VALUE, 11);
+        long before = usedHeap();
+        IntSet tree = (impl.equals("OFF_HEAP_BINARY_TREE") ? new OffHeapBinaryTree() : new BinaryTree());
+        int inserted = 0;
+        for (int i = 0; i < keys.length && inserted < count; i++) {
+            if (tree.insert(keys[i])) {
+                inserted++;
+            }
+        }
+        long after = usedHeap();
+        long offHeap = (tree instanceof OffHeapBinaryTree ? ((OffHeapBinaryTree) tree).getOffHeapBytes() : 0);
+        System.out.printf("%s keys=%d heap=%.1f MB bytes/key=%.1f off-heap=%.1f MB%n",
+                impl, inserted, (after - before) / 1e6, (double) (after - before) / inserted, offHeap / 1e6);
+
+        long gcTime = gcTime();
+        long start = System.nanoTime();
+        System.gc();
+        System.out.printf("full GC with the tree live: %.1f ms (collector time %d ms)%n",
+                (System.nanoTime() - start) / 1e6, gcTime() - gcTime);
+
+        long gcCount = gcCount();
+        gcTime = gcTime();
+        start = System.nanoTime();
+        for (int i = 0; i < 4 * count; i++) {
+            int key = keys[i % keys.length];
+            if ((i & 1) == 0) {
+                tree.delete(key);
+            } else {
+                tree.insert(key);
+            }
+        }
+        System.out.printf("churn of %d ops: %.0f ms, %d GCs, %d ms in GC%n",
+                4 * count, (System.nanoTime() - start) / 1e6, gcCount() - gcCount, gcTime() - gcTime);
+        if (!tree.contains(keys[4 * count - 1])) {
+            throw new AssertionError();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += gc.getCollectionTime();
+        }
+        return time;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+        }
+        return count;
+    }
+}
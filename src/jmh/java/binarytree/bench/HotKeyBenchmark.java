@@ -0,0 +1,99 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.CachedIntSet;
+import binarytree.IntSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Lookup-heavy traffic on a pre-filled BinaryTree with and without a
+ * CachedIntSet in front (cacheSize=0 means no cache). Reported as
+ * throughput and as sampled latency (p50/p99/... per operation); the cache
+ * hit rate is printed after each trial. Thread counts are swept by
+ * BenchmarkMain. */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotKeyBenchmark {
+    @Param({"0", "4096"})
+    public int cacheSize;
+
+    @Param({"0.0", "0.01"})
+    public double updateRatio;
+
+    @Param({"1000000"})
+    public int keyRange;
+
+    @Param({"ZIPFIAN", "UNIFORM"})
+    public KeyDistribution distribution;
+
+    IntSet set;
+    CachedIntSet cache;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        BinaryTree tree = new BinaryTree();
+        int[] keys = KeyDistribution.UNIFORM.generate(keyRange, keyRange, 42);
+        for (int i = 0; i < keys.length && tree.size() < keyRange / 2; i++) {
+            tree.insert(keys[i]);
+        }
+        if (cacheSize > 0) {
+            cache = new CachedIntSet(tree, cacheSize);
+            set = cache;
+        } else {
+            set = tree;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        if (cache != null) {
+            System.out.printf("%nhit rate %.3f (hits %d, misses %d, bypasses %d)%n",
+                    cache.getHitRate(), cache.getHits(), cache.getMisses(), cache.getBypasses());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ops {
+        int[] keys;
+        byte[] ops;
+        int next;
+
+        @Setup(Level.Trial)
+        public void generate(HotKeyBenchmark bench) {
+            long seed = Thread.currentThread().getId();
+            keys = bench.distribution.generate(SetBenchmark.OPS_PER_THREAD, bench.keyRange, seed);
+            ops = new byte[SetBenchmark.OPS_PER_THREAD];
+            SplittableRandom random = new SplittableRandom(~seed);
+            for (int i = 0; i < ops.length; i++) {
+                double p = random.nextDouble();
+                if (p < bench.updateRatio) {
+                    ops[i] = SetBenchmark.INSERT;
+                } else if (p < 2 * bench.updateRatio) {
+                    ops[i] = SetBenchmark.DELETE;
+                } else {
+                    ops[i] = SetBenchmark.CONTAINS;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean operation(Ops ops) {
+        int i = ops.next++ & (SetBenchmark.OPS_PER_THREAD - 1);
+        int key = ops.keys[i];
+        switch (ops.ops[i]) {
+            case SetBenchmark.INSERT:
+                return set.insert(key);
+            case SetBenchmark.DELETE:
+                return set.delete(key);
+            default:
+                return set.contains(key);
+        }
+    }
+}
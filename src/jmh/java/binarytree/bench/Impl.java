@@ -0,0 +1,162 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.ContentionPolicy;
+import binarytree.IntSet;
+import binarytree.KeyOrder;
+import binarytree.LongBinaryTree;
+import binarytree.ObjectBinaryTree;
+import binarytree.OffHeapBinaryTree;
+import binarytree.Partitioner;
+import binarytree.ShardedBinaryTree;
+
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/* BinaryTree together with the JDK sets it is compared against. The LONG_
+ * and OBJECT_ variants run the same algorithm on long and boxed Integer keys:
+ * java -jar target/benchmarks.jar SetBenchmark \
+ *     -p impl=BINARY_TREE,LONG_BINARY_TREE,OBJECT_BINARY_TREE */
+public enum Impl {
+    BINARY_TREE {
+        @Override
+        public BenchSet create() {
+            BinaryTree tree = new BinaryTree();
+            return new BenchSet() {
+                @Override
+                public boolean insert(int v) {
+                    return tree.insert(v);
+                }
+
+                @Override
+                public void delete(int v) {
+                    tree.delete(v);
+                }
+
+                @Override
+                public boolean contains(int v) {
+                    return tree.contains(v);
+                }
+            };
+        }
+    },
+    /* Nodes unlinked by deletes are reused by inserts (compare under churn,
+     * -p updateRatio=0.5). */
+    RECYCLING_BINARY_TREE {
+        @Override
+        public BenchSet create() {
+            return fromIntSet(new BinaryTree(ContentionPolicy.SPIN, KeyOrder.NATURAL, true));
+        }
+    },
+    /* 64 hash-partitioned shards, enough for the 64-thread end of the sweep. */
+    SHARDED_BINARY_TREE {
+        @Override
+        public BenchSet create() {
+            return fromIntSet(new ShardedBinaryTree(Partitioner.hash(64)));
+        }
+    },
+    OFF_HEAP_BINARY_TREE {
+        @Override
+        public BenchSet create() {
+            return fromIntSet(new OffHeapBinaryTree());
+        }
+    },
+    LONG_BINARY_TREE {
+        @Override
+        public BenchSet create() {
+            LongBinaryTree tree = new LongBinaryTree();
+            return new BenchSet() {
+                @Override
+                public boolean insert(int v) {
+                    return tree.insert(v);
+                }
+
+                @Override
+                public void delete(int v) {
+                    tree.delete(v);
+                }
+
+                @Override
+                public boolean contains(int v) {
+                    return tree.contains(v);
+                }
+            };
+        }
+    },
+    OBJECT_BINARY_TREE {
+        @Override
+        public BenchSet create() {
+            ObjectBinaryTree<Integer> tree = new ObjectBinaryTree<>();
+            return new BenchSet() {
+                @Override
+                public boolean insert(int v) {
+                    return tree.insert(v);
+                }
+
+                @Override
+                public void delete(int v) {
+                    tree.delete(v);
+                }
+
+                @Override
+                public boolean contains(int v) {
+                    return tree.contains(v);
+                }
+            };
+        }
+    },
+    SKIP_LIST {
+        @Override
+        public BenchSet create() {
+            return fromJdk(new ConcurrentSkipListSet<>());
+        }
+    },
+    SYNCHRONIZED_TREE_SET {
+        @Override
+        public BenchSet create() {
+            return fromJdk(Collections.synchronizedNavigableSet(new TreeSet<>()));
+        }
+    };
+
+    public abstract BenchSet create();
+
+    private static BenchSet fromIntSet(IntSet set) {
+        return new BenchSet() {
+            @Override
+            public boolean insert(int v) {
+                return set.insert(v);
+            }
+
+            @Override
+            public void delete(int v) {
+                set.delete(v);
+            }
+
+            @Override
+            public boolean contains(int v) {
+                return set.contains(v);
+            }
+        };
+    }
+
+    private static BenchSet fromJdk(NavigableSet<Integer> set) {
+        return new BenchSet() {
+            @Override
+            public boolean insert(int v) {
+                return set.add(v);
+            }
+
+            @Override
+            public void delete(int v) {
+                set.remove(v);
+            }
+
+            @Override
+            public boolean contains(int v) {
+                return set.contains(v);
+            }
+        };
+    }
+}
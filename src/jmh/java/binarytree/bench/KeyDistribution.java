@@ -0,0 +1,63 @@
+package binarytree.bench;
+
+import java.util.SplittableRandom;
+
+/* Key generators for the benchmark workloads. Keys are drawn ahead of the
+ * measurement, so none of these sit on the measured path. */
+public enum KeyDistribution {
+    UNIFORM {
+        @Override
+        public int[] generate(int count, int range, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = random.nextInt(range);
+            }
+            return keys;
+        }
+    },
+    /* YCSB-style zipfian (theta = 0.99) with ranks scattered over the range,
+     * so the hot keys do not all sit in one subtree */
+    ZIPFIAN {
+        @Override
+        public int[] generate(int count, int range, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            double theta = 0.99;
+            double zetaN = zeta(range, theta);
+            double zeta2 = zeta(2, theta);
+            double alpha = 1.0 / (1.0 - theta);
+            double eta = (1 - Math.pow(2.0 / range, 1 - theta)) / (1 - zeta2 / zetaN);
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetaN;
+                long rank;
+                if (uz < 1.0) {
+                    rank = 0;
+                } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+                    rank = 1;
+                } else {
+                    rank = (long) (range * Math.pow(eta * u - eta + 1, alpha));
+                }
+                keys[i] = scatter(rank, range);
+            }
+            return keys;
+        }
+    };
+
+    public abstract int[] generate(int count, int range, long seed);
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    private static int scatter(long rank, int range) {
+        long h = rank * 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 32);
+        return (int) Math.floorMod(h, (long) range);
+    }
+}
@@ -0,0 +1,144 @@
+package binarytree.bench;
+
+import binarytree.BinaryTreeMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/* SetBenchmark's workload (Main's default: x puts, x removes, 1 - 2x gets)
+ * on BinaryTreeMap against ConcurrentSkipListMap. Thread counts are swept
+ * by BenchmarkMain. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MapBenchmark {
+    public enum MapImpl {
+        BINARY_TREE_MAP {
+            @Override
+            BenchMap create() {
+                BinaryTreeMap<Integer> map = new BinaryTreeMap<>();
+                return new BenchMap() {
+                    @Override
+                    public Integer put(int k, Integer v) {
+                        return map.put(k, v);
+                    }
+
+                    @Override
+                    public Integer remove(int k) {
+                        return map.remove(k);
+                    }
+
+                    @Override
+                    public Integer get(int k) {
+                        return map.get(k);
+                    }
+                };
+            }
+        },
+        SKIP_LIST_MAP {
+            @Override
+            BenchMap create() {
+                ConcurrentSkipListMap<Integer, Integer> map = new ConcurrentSkipListMap<>();
+                return new BenchMap() {
+                    @Override
+                    public Integer put(int k, Integer v) {
+                        return map.put(k, v);
+                    }
+
+                    @Override
+                    public Integer remove(int k) {
+                        return map.remove(k);
+                    }
+
+                    @Override
+                    public Integer get(int k) {
+                        return map.get(k);
+                    }
+                };
+            }
+        };
+
+        abstract BenchMap create();
+    }
+
+    interface BenchMap {
+        Integer put(int k, Integer v);
+
+        Integer remove(int k);
+
+        Integer get(int k);
+    }
+
+    @Param({"BINARY_TREE_MAP", "SKIP_LIST_MAP"})
+    public MapImpl impl;
+
+    @Param({"0.0", "0.1", "0.5"})
+    public double updateRatio;
+
+    @Param({"100000", "1000000"})
+    public int keyRange;
+
+    BenchMap map;
+    // values come from here, so that neither map pays for boxing them
+    Integer[] values;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        map = impl.create();
+        values = new Integer[1024];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        int[] keys = KeyDistribution.UNIFORM.generate(keyRange, keyRange, 42);
+        int inserted = 0;
+        for (int i = 0; i < keys.length && inserted < keyRange / 2; i++) {
+            if (map.put(keys[i], values[i & 1023]) == null) {
+                inserted++;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ops {
+        int[] keys;
+        byte[] ops;
+        int next;
+
+        @Setup(Level.Trial)
+        public void generate(MapBenchmark bench) {
+            long seed = Thread.currentThread().getId();
+            keys = KeyDistribution.UNIFORM.generate(SetBenchmark.OPS_PER_THREAD, bench.keyRange, seed);
+            ops = new byte[SetBenchmark.OPS_PER_THREAD];
+            SplittableRandom random = new SplittableRandom(~seed);
+            for (int i = 0; i < ops.length; i++) {
+                double p = random.nextDouble();
+                if (p < bench.updateRatio) {
+                    ops[i] = SetBenchmark.INSERT;
+                } else if (p < 2 * bench.updateRatio) {
+                    ops[i] = SetBenchmark.DELETE;
+                } else {
+                    ops[i] = SetBenchmark.CONTAINS;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Integer operation(Ops ops) {
+        int i = ops.next++ & (SetBenchmark.OPS_PER_THREAD - 1);
+        int key = ops.keys[i];
+        switch (ops.ops[i]) {
+            case SetBenchmark.INSERT:
+                return map.put(key, values[i & 1023]);
+            case SetBenchmark.DELETE:
+                return map.remove(key);
+            default:
+                return map.get(key);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.TreeMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/* What TreeMetrics costs: SetBenchmark's workload on a BinaryTree with
+ * metrics off and on. The latencies collected are printed after each
+ * trial. Thread counts are swept by BenchmarkMain. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MetricsBenchmark {
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    @Param({"0.1"})
+    public double updateRatio;
+
+    @Param({"1000000"})
+    public int keyRange;
+
+    BinaryTree tree;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree();
+        int[] keys = KeyDistribution.UNIFORM.generate(keyRange, keyRange, 42);
+        for (int i = 0; i < keys.length && tree.size() < keyRange / 2; i++) {
+            tree.insert(keys[i]);
+        }
+        if (metrics) {
+            tree.enableMetrics();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        TreeMetrics collected = tree.getMetrics();
+        if (collected != null) {
+            System.out.printf("%n%s", collected);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ops {
+        int[] keys;
+        byte[] ops;
+        int next;
+
+        @Setup(Level.Trial)
+        public void generate(MetricsBenchmark bench) {
+            long seed = Thread.currentThread().getId();
+            keys = KeyDistribution.UNIFORM.generate(SetBenchmark.OPS_PER_THREAD, bench.keyRange, seed);
+            ops = new byte[SetBenchmark.OPS_PER_THREAD];
+            SplittableRandom random = new SplittableRandom(~seed);
+            for (int i = 0; i < ops.length; i++) {
+                double p = random.nextDouble();
+                if (p < bench.updateRatio) {
+                    ops[i] = SetBenchmark.INSERT;
+                } else if (p < 2 * bench.updateRatio) {
+                    ops[i] = SetBenchmark.DELETE;
+                } else {
+                    ops[i] = SetBenchmark.CONTAINS;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean operation(Ops ops) {
+        int i = ops.next++ & (SetBenchmark.OPS_PER_THREAD - 1);
+        int key = ops.keys[i];
+        switch (ops.ops[i]) {
+            case SetBenchmark.INSERT:
+                return tree.insert(key);
+            case SetBenchmark.DELETE:
+                return tree.delete(key);
+            default:
+                return tree.contains(key);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Range scans of various widths over a tree of 500k keys in [0, 1M), alone
+ * and next to a thread doing 50/50 inserts and deletes on the same range. */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeScanBenchmark {
+    static final int RANGE = 1_000_000;
+
+    @Param({"10", "1000", "100000"})
+    public int width;
+
+    BinaryTree tree;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree();
+        int[] keys = KeyDistribution.UNIFORM.generate(RANGE, RANGE, 17);
+        for (int i = 0; i < RANGE / 2; i++) {
+            tree.insert(keys[i]);
+        }
+    }
+
+    int scan() {
+        int lo = ThreadLocalRandom.current().nextInt(RANGE - width);
+        PrimitiveIterator.OfInt keys = tree.range(lo, lo + width);
+        int sum = 0;
+        while (keys.hasNext()) {
+            sum += keys.nextInt();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @Group("scanOnly")
+    public int scanAlone() {
+        return scan();
+    }
+
+    @Benchmark
+    @Group("scanWithWriter")
+    @GroupThreads(1)
+    public int scanning() {
+        return scan();
+    }
+
+    @Benchmark
+    @Group("scanWithWriter")
+    @GroupThreads(1)
+    public boolean writing() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = random.nextInt(RANGE);
+        if (random.nextBoolean()) {
+            return tree.insert(key);
+        }
+        return tree.delete(key);
+    }
+}
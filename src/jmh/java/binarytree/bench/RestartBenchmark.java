@@ -0,0 +1,50 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.Checkpoint;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* Restart cost for a tree of -Dkeys uniform keys (default 10M, drawn from
+ * 4x as large a range): writing a checkpoint, loading it back, and, unless
+ * -Dreinsert=false, the old way of inserting every key again in random
+ * order. Needs a heap of about 70 bytes per key.
+ * java -Xmx8g -Dkeys=100000000 -cp target/benchmarks.jar binarytree.bench.RestartBenchmark */
+public class RestartBenchmark {
+    public static void main(String[] args) throws Exception {
+        int count = Integer.getInteger("keys", 10_000_000);
+        boolean reinsert = Boolean.parseBoolean(System.getProperty("reinsert", "true"));
+        int[] keys = KeyDistribution.UNIFORM.generate(count, 4 * count, 17);
+        BinaryTree tree = BinaryTree.build(keys);
+        Path file = Files.createTempFile("binarytree", ".ckpt");
+        try {
+            long start = System.nanoTime();
+            int written = Checkpoint.write(tree, file);
+            System.out.printf("keys=%d checkpoint: %.0f ms, %.1f MB (%.2f bytes/key)%n", written,
+                    (System.nanoTime() - start) / 1e6, Files.size(file) / 1e6, (double) Files.size(file) / written);
+            tree = null;
+
+            for (int round = 0; round < 3; round++) {
+                System.gc();
+                start = System.nanoTime();
+                BinaryTree loaded = Checkpoint.load(file);
+                System.out.printf("load: %.0f ms (size %d, height %d)%n",
+                        (System.nanoTime() - start) / 1e6, loaded.size(), loaded.height());
+            }
+
+            if (reinsert) {
+                System.gc();
+                start = System.nanoTime();
+                BinaryTree rebuilt = new BinaryTree();
+                for (int key : keys) {
+                    rebuilt.insert(key);
+                }
+                System.out.printf("insert one by one: %.0f ms (height %d)%n",
+                        (System.nanoTime() - start) / 1e6, rebuilt.height());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import binarytree.ContentionPolicy;
+import binarytree.KeyOrder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Lookups in a tree filled with 0..size-1 in ascending order. With NATURAL
+ * order the height (printed after each trial) equals size and the lookup
+ * cost grows linearly; HASHED should stay logarithmic. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequentialKeysBenchmark {
+    @Param({"NATURAL", "HASHED"})
+    public KeyOrder order;
+
+    @Param({"1000", "10000", "30000"})
+    public int size;
+
+    BinaryTree tree;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree(ContentionPolicy.SPIN, order);
+        for (int i = 0; i < size; i++) {
+            tree.insert(i);
+        }
+        System.out.printf("%n%s, %d keys: height %d%n", order, size, tree.height());
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return tree.contains(ThreadLocalRandom.current().nextInt(size));
+    }
+}
@@ -0,0 +1,88 @@
+package binarytree.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Main's default workload under JMH: the set is pre-filled with half of the
+ * key range, then every thread runs x inserts, x deletes and (1 - 2x) lookups.
+ * Thread counts are swept by BenchmarkMain. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SetBenchmark {
+    static final int OPS_PER_THREAD = 1 << 16;
+    static final byte INSERT = 0;
+    static final byte DELETE = 1;
+    static final byte CONTAINS = 2;
+
+    @Param({"BINARY_TREE", "SHARDED_BINARY_TREE", "SKIP_LIST", "SYNCHRONIZED_TREE_SET"})
+    public Impl impl;
+
+    @Param({"0.0", "0.1", "0.5"})
+    public double updateRatio;
+
+    @Param({"100000", "1000000"})
+    public int keyRange;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    BenchSet set;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        set = impl.create();
+        int[] keys = KeyDistribution.UNIFORM.generate(keyRange, keyRange, 42);
+        int inserted = 0;
+        for (int i = 0; i < keys.length && inserted < keyRange / 2; i++) {
+            if (set.insert(keys[i])) {
+                inserted++;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ops {
+        int[] keys;
+        byte[] ops;
+        int next;
+
+        @Setup(Level.Trial)
+        public void generate(SetBenchmark bench) {
+            long seed = Thread.currentThread().getId();
+            keys = bench.distribution.generate(OPS_PER_THREAD, bench.keyRange, seed);
+            ops = new byte[OPS_PER_THREAD];
+            SplittableRandom random = new SplittableRandom(~seed);
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                double p = random.nextDouble();
+                if (p < bench.updateRatio) {
+                    ops[i] = INSERT;
+                } else if (p < 2 * bench.updateRatio) {
+                    ops[i] = DELETE;
+                } else {
+                    ops[i] = CONTAINS;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean operation(Ops ops) {
+        int i = ops.next++ & (OPS_PER_THREAD - 1);
+        int key = ops.keys[i];
+        switch (ops.ops[i]) {
+            case INSERT:
+                return set.insert(key);
+            case DELETE:
+                set.delete(key);
+                return false;
+            default:
+                return set.contains(key);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package binarytree.bench;
+
+import binarytree.BinaryTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* What snapshots cost the writers: an update thread on a 100k-key tree,
+ * alone and next to a thread that takes snapshots back to back. */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+    static final int RANGE = 200_000;
+
+    BinaryTree tree;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        tree = new BinaryTree();
+        for (int key : KeyDistribution.UNIFORM.generate(RANGE / 2, RANGE, 23)) {
+            tree.insert(key);
+        }
+    }
+
+    boolean update() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = random.nextInt(RANGE);
+        if (random.nextBoolean()) {
+            return tree.insert(key);
+        }
+        return tree.delete(key);
+    }
+
+    @Benchmark
+    @Group("writersOnly")
+    public boolean writer() {
+        return update();
+    }
+
+    @Benchmark
+    @Group("withSnapshots")
+    @GroupThreads(1)
+    public boolean writing() {
+        return update();
+    }
+
+    @Benchmark
+    @Group("withSnapshots")
+    @GroupThreads(1)
+    public int snapshotting() {
+        return tree.snapshot().size();
+    }
+}
@@ -0,0 +1,110 @@
+package binarytree.bench;
+
+import binarytree.AsyncIntSet;
+import binarytree.BinaryTree;
+import binarytree.ContentionPolicy;
+import binarytree.KeyOrder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* 10k clients on a shared BinaryTree, each its own task on executor
+ * (VIRTUAL: a virtual thread per client, needs Java 21; POOL: 4 platform
+ * threads), per contention policy. clients runs the clients directly,
+ * async issues one operation per client through AsyncIntSet. Time per
+ * round of all clients; the thread sweep does not apply, run with -t 1:
+ * java -jar target/benchmarks.jar VirtualThreadBenchmark -t 1 */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+    static final int RANGE = 100_000;
+
+    @Param({"SPIN", "PARK", "COOPERATIVE"})
+    public ContentionPolicy policy;
+
+    @Param({"VIRTUAL", "POOL"})
+    public String executor;
+
+    @Param({"10000"})
+    public int clients;
+
+    @Param({"16"})
+    public int opsPerClient;
+
+    @Param({"0.5"})
+    public double updateRatio;
+
+    BinaryTree tree;
+    ExecutorService pool;
+    AsyncIntSet async;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tree = new BinaryTree(policy, KeyOrder.NATURAL);
+        for (int key : KeyDistribution.UNIFORM.generate(RANGE / 2, RANGE, 31)) {
+            tree.insert(key);
+        }
+        // throws on a runtime without virtual threads, which skips the trial
+        pool = (executor.equals("VIRTUAL") ? AsyncIntSet.newVirtualThreadExecutor() : Executors.newFixedThreadPool(4));
+        async = new AsyncIntSet(tree, pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    boolean operation(ThreadLocalRandom random) {
+        int key = random.nextInt(RANGE);
+        double p = random.nextDouble();
+        if (p < updateRatio / 2) {
+            return tree.insert(key);
+        } else if (p < updateRatio) {
+            return tree.delete(key);
+        }
+        return tree.contains(key);
+    }
+
+    @Benchmark
+    public void clients() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < opsPerClient; i++) {
+                    operation(random);
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+
+    @Benchmark
+    public void async() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CompletableFuture<?>[] pending = new CompletableFuture<?>[clients];
+        for (int c = 0; c < clients; c++) {
+            int key = random.nextInt(RANGE);
+            double p = random.nextDouble();
+            if (p < updateRatio / 2) {
+                pending[c] = async.insert(key);
+            } else if (p < updateRatio) {
+                pending[c] = async.delete(key);
+            } else {
+                pending[c] = async.contains(key);
+            }
+        }
+        CompletableFuture.allOf(pending).join();
+    }
+}
@@ -0,0 +1,352 @@
+package binarytree;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/* The locking protocol of the concurrency-optimal tree, shared by
+ * BinaryTree and its variants for other keys (LongBinaryTree,
+ * ObjectBinaryTree, BinaryTreeMap), so that there is one copy of it. A
+ * subclass searches for its key the way its keys compare, which fills a
+ * Window, and then makes one attempt at the update with insertAt or
+ * deleteAt, searching again while they return RETRY. The hooks let
+ * BinaryTree report to snapshots and recycle nodes, and BinaryTreeMap
+ * carry values in and out through the window. */
+abstract class AbstractBinaryTree<N extends TreeNode<N>> {
+    /* Outcomes of insertAt and deleteAt. */
+    static final int RETRY = 0;
+    static final int PRESENT = 1;
+    static final int ABSENT = 2;
+    static final int LINKED = 3;
+    static final int REVIVED = 4;
+    static final int REMOVED = 5;
+
+    /* Where a search for some key ended: the node holding it (or null) and
+     * its two ancestors, and how many links below root that place is. Each
+     * thread reuses one instance, so retries don't allocate. */
+    static final class Window<N> {
+        N gprev;
+        N prev;
+        N curr;
+        int depth;
+        /* Attempts that started over in the current insert/delete. */
+        int retries;
+        /* BinaryTreeMap's value: the one to map on the way in, the removed
+         * one on the way out. */
+        Object value;
+
+        void clear() {
+            gprev = null;
+            prev = null;
+            curr = null;
+            value = null;
+        }
+    }
+
+    final ContentionPolicy policy;
+    final LongAdder readLockRetries = new LongAdder();
+    final LongAdder routingNodes = new LongAdder();
+    final LongAdder reclaimedRoutingNodes = new LongAdder();
+    /* Keys (DATA nodes that are not deleted) and nodes linked below root.
+     * Only calls that actually change membership or unlink a node touch
+     * them, so readers and failed updates stay off. */
+    final LongAdder dataNodes = new LongAdder();
+    final LongAdder linkedNodes = new LongAdder();
+    final AtomicInteger maxDepth = new AtomicInteger();
+
+    AbstractBinaryTree(ContentionPolicy policy) {
+        this.policy = policy;
+    }
+
+    /* Whether node's key belongs in the left subtree of parent. */
+    abstract boolean isLeft(N node, N parent);
+
+    /* node has been acted on or looked at by an update; see BinaryTree's
+     * snapshots. */
+    void observed(N node) {
+    }
+
+    /* Takes node out of the set; an unlinking delete takes effect here,
+     * before node is actually unlinked. */
+    void markDeleted(N node) {
+        node.setDeleted();
+    }
+
+    /* node has just been unlinked by the calling thread. */
+    void retire(N node) {
+    }
+
+    /* node, a ROUTING node write-locked by insertAt, is about to become DATA. */
+    void revive(N node, Window<N> window) {
+    }
+
+    /* node, state write-locked, is about to leave the set: deleteAt will not
+     * back out anymore. */
+    void unmap(N node, Window<N> window) {
+    }
+
+    void raiseMaxDepth(int depth) {
+        // the plain read keeps all but the rare deepening inserts off the CAS
+        if (depth > maxDepth.get()) {
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    void readLock(N node) {
+        for (int attempt = 1; !node.tryLock(TreeNode.STATE_READ, TreeNode.STATE_WRITE); attempt++) {
+            readLockRetries.increment();
+            policy.pause(attempt);
+        }
+    }
+
+    /* One attempt at inserting the key window was searched for. node is the
+     * leaf to link if the search fell off the tree (window.curr is null),
+     * on the left of window.prev or not. Returns RETRY, PRESENT, LINKED or
+     * REVIVED. */
+    final int insertAt(Window<N> window, boolean left, N node) {
+        N curr = window.curr;
+        if (curr != null) {
+            if (curr.isDeleted()) {
+                // deleted but not unlinked yet: the key is already gone
+                return RETRY;
+            }
+            if (curr.state() == State.DATA) {
+                observed(curr);
+                return PRESENT;
+            }
+            if (!curr.tryWriteLockState(State.ROUTING)) {
+                return RETRY;
+            }
+            revive(curr, window);
+            curr.setState(State.DATA);
+            curr.unlockWrite();
+            routingNodes.decrement();
+            dataNodes.increment();
+            observed(curr);
+            return REVIVED;
+        }
+        N prev = window.prev;
+        if (!prev.tryWriteLockChildRef(left, null)) {
+            return RETRY;
+        }
+        readLock(prev);
+        boolean deleted = prev.isDeleted();
+        if (!deleted) {
+            prev.setChild(left, node);
+        }
+        prev.unlockRead();
+        prev.unlockChild(left);
+        if (deleted) {
+            return RETRY;
+        }
+        dataNodes.increment();
+        linkedNodes.increment();
+        raiseMaxDepth(window.depth);
+        observed(node);
+        return LINKED;
+    }
+
+    /* One attempt at deleting the key window was searched for. Returns
+     * RETRY, ABSENT or REMOVED. */
+    final int deleteAt(Window<N> window) {
+        N curr = window.curr;
+        N prev = window.prev;
+        N gprev = window.gprev;
+        if (curr == null) {
+            return ABSENT;
+        }
+        if (!curr.isMember()) {
+            observed(curr);
+            return ABSENT;
+        }
+        int num = curr.numberOfChildren();
+        if (num == 2) {
+            if (!curr.tryWriteLockState(State.DATA)) {
+                return RETRY;
+            }
+            if (curr.numberOfChildren() != 2) {
+                curr.unlockWrite();
+                return RETRY;
+            }
+            unmap(curr, window);
+            curr.setState(State.ROUTING);
+            curr.unlockWrite();
+            routingNodes.increment();
+            dataNodes.decrement();
+            observed(curr);
+            return REMOVED;
+        } else if (num == 1) {
+            if (!unlinkWithOneChild(prev, curr, State.DATA, window)) {
+                return RETRY;
+            }
+            dataNodes.decrement();
+            return REMOVED;
+        }
+        boolean isCurrLeft = isLeft(curr, prev);
+        if (prev.state() == State.DATA) {
+            if (!prev.tryWriteLockChildKey(isCurrLeft, curr)) {
+                return RETRY;
+            }
+            curr = prev.child(isCurrLeft);
+            if (!curr.tryWriteLockState(State.DATA)) {
+                prev.unlockChild(isCurrLeft);
+                return RETRY;
+            }
+            if (curr.numberOfChildren() != 0) {
+                curr.unlockWrite();
+                prev.unlockChild(isCurrLeft);
+                return RETRY;
+            }
+            if (!prev.tryReadLockState(State.DATA)) {
+                curr.unlockWrite();
+                prev.unlockChild(isCurrLeft);
+                return RETRY;
+            }
+            unmap(curr, window);
+            markDeleted(curr);
+            prev.setChild(isCurrLeft, null);
+            prev.unlockRead();
+            curr.unlockWrite();
+            prev.unlockChild(isCurrLeft);
+            retire(curr);
+            dataNodes.decrement();
+            linkedNodes.decrement();
+            return REMOVED;
+        }
+        // prev is ROUTING: unlink it too, its other child takes its place
+        boolean isChildLeft = !isCurrLeft;
+        N child = prev.child(isChildLeft);
+        boolean isPrevLeft = isLeft(prev, gprev);
+        if (!prev.tryWriteLockChildKey(isCurrLeft, curr)) {
+            return RETRY;
+        }
+        curr = prev.child(isCurrLeft);
+        if (!curr.tryWriteLockState(State.DATA)) {
+            prev.unlockChild(isCurrLeft);
+            return RETRY;
+        }
+        if (curr.numberOfChildren() != 0) {
+            curr.unlockWrite();
+            prev.unlockChild(isCurrLeft);
+            return RETRY;
+        }
+        if (!tryWriteLockWithChild(prev, child, isChildLeft)) {
+            curr.unlockWrite();
+            prev.unlockChild(isCurrLeft);
+            return RETRY;
+        }
+        if (!tryWriteLockWithChild(gprev, prev, isPrevLeft)) {
+            prev.unlockChild(isChildLeft);
+            curr.unlockWrite();
+            prev.unlockChild(isCurrLeft);
+            return RETRY;
+        }
+        if (!prev.tryWriteLockState(State.ROUTING)) {
+            gprev.unlockChild(isPrevLeft);
+            prev.unlockChild(isChildLeft);
+            curr.unlockWrite();
+            prev.unlockChild(isCurrLeft);
+            return RETRY;
+        }
+        unmap(curr, window);
+        prev.setDeleted();
+        markDeleted(curr);
+        gprev.setChild(isPrevLeft, child);
+        prev.unlockWrite();
+        gprev.unlockChild(isPrevLeft);
+        prev.unlockChild(isChildLeft);
+        curr.unlockWrite();
+        prev.unlockChild(isCurrLeft);
+        retire(prev);
+        retire(curr);
+        routingNodes.decrement();
+        reclaimedRoutingNodes.increment();
+        dataNodes.decrement();
+        linkedNodes.add(-2);
+        return REMOVED;
+    }
+
+    /* Splices curr, which must be in the expected state and have exactly one
+     * child, out from under prev. window is for unmap, null for a ROUTING
+     * node. */
+    final boolean unlinkWithOneChild(N prev, N curr, State expected, Window<N> window) {
+        boolean isChildLeft = (curr.left != null);
+        N child = curr.child(isChildLeft);
+        boolean isCurrLeft = isLeft(curr, prev);
+        if (!tryWriteLockWithChild(curr, child, isChildLeft)) {
+            return false;
+        }
+        if (!tryWriteLockWithChild(prev, curr, isCurrLeft)) {
+            curr.unlockChild(isChildLeft);
+            return false;
+        }
+        if (!curr.tryWriteLockState(expected)) {
+            prev.unlockChild(isCurrLeft);
+            curr.unlockChild(isChildLeft);
+            return false;
+        }
+        if (curr.numberOfChildren() != 1) {
+            curr.unlockWrite();
+            prev.unlockChild(isCurrLeft);
+            curr.unlockChild(isChildLeft);
+            return false;
+        }
+        if (window != null) {
+            unmap(curr, window);
+        }
+        markDeleted(curr);
+        prev.setChild(isCurrLeft, child);
+        curr.unlockWrite();
+        prev.unlockChild(isCurrLeft);
+        curr.unlockChild(isChildLeft);
+        retire(curr);
+        linkedNodes.decrement();
+        return true;
+    }
+
+    /* Compaction: unlinks a ROUTING node left with one child or none. It
+     * takes the same locks as delete, and the state write lock on the
+     * ROUTING node keeps a concurrent insert from turning it back into DATA
+     * (or hanging a child under it) while it is being removed. */
+    final boolean unlinkRouting(N prev, N curr) {
+        int num = curr.numberOfChildren();
+        if (num == 1) {
+            return unlinkWithOneChild(prev, curr, State.ROUTING, null);
+        }
+        if (num != 0) {
+            return false;
+        }
+        boolean isCurrLeft = isLeft(curr, prev);
+        if (!tryWriteLockWithChild(prev, curr, isCurrLeft)) {
+            return false;
+        }
+        if (!curr.tryWriteLockState(State.ROUTING)) {
+            prev.unlockChild(isCurrLeft);
+            return false;
+        }
+        if (curr.numberOfChildren() != 0 || !prev.tryReadLockState(prev.state())) {
+            curr.unlockWrite();
+            prev.unlockChild(isCurrLeft);
+            return false;
+        }
+        curr.setDeleted();
+        prev.setChild(isCurrLeft, null);
+        prev.unlockRead();
+        curr.unlockWrite();
+        prev.unlockChild(isCurrLeft);
+        retire(curr);
+        linkedNodes.decrement();
+        return true;
+    }
+
+    /* Locks the link from parent to child, unless parent is deleted. */
+    private boolean tryWriteLockWithChild(N parent, N child, boolean left) {
+        boolean locked = parent.tryWriteLockChildRef(left, child);
+        if (parent.isDeleted()) {
+            if (locked) {
+                parent.unlockChild(left);
+            }
+            return false;
+        }
+        return locked;
+    }
+}
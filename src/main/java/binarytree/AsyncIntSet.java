@@ -0,0 +1,106 @@
+package binarytree;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/* An IntSet whose operations run on an executor and complete a future,
+ * for request handlers that should not wait on the set themselves.
+ * Operations are not ordered with each other beyond what the executor
+ * does; a caller that needs its insert before its contains chains them.
+ *
+ * For a BinaryTree used from virtual threads or a small shared pool, the
+ * tree should be created with ContentionPolicy.COOPERATIVE, so a lost
+ * lock race parks instead of spinning on the carrier. */
+public class AsyncIntSet implements AutoCloseable {
+    private static final MethodHandle NEW_VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+    private final IntSet set;
+    private final ExecutorService executor;
+    private final boolean owned;
+
+    /* executor stays the caller's: close() leaves it running. */
+    public AsyncIntSet(IntSet set, ExecutorService executor) {
+        this(set, executor, false);
+    }
+
+    private AsyncIntSet(IntSet set, ExecutorService executor, boolean owned) {
+        this.set = set;
+        this.executor = executor;
+        this.owned = owned;
+    }
+
+    /* Every operation on a virtual thread of its own, closed with this set. */
+    public static AsyncIntSet onVirtualThreads(IntSet set) {
+        return new AsyncIntSet(set, newVirtualThreadExecutor(), true);
+    }
+
+    /* Virtual threads are final from Java 21 on; the build targets 17, so
+     * the factory is looked up at run time. */
+    public static boolean virtualThreadsSupported() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /* Executors.newVirtualThreadPerTaskExecutor(); throws
+     * UnsupportedOperationException on a runtime without virtual threads. */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_EXECUTOR == null) {
+            throw new UnsupportedOperationException("virtual threads need Java 21, running " + Runtime.version());
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle virtualExecutorFactory() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public IntSet getSet() {
+        return set;
+    }
+
+    public CompletableFuture<Boolean> contains(int v) {
+        return CompletableFuture.supplyAsync(() -> set.contains(v), executor);
+    }
+
+    /* Completes with whether v was added. */
+    public CompletableFuture<Boolean> insert(int v) {
+        return CompletableFuture.supplyAsync(() -> set.insert(v), executor);
+    }
+
+    /* Completes with whether v was in the set. */
+    public CompletableFuture<Boolean> delete(int v) {
+        return CompletableFuture.supplyAsync(() -> set.delete(v), executor);
+    }
+
+    /* If the executor is this set's own, shuts it down and waits for the
+     * operations already submitted. An interrupt stops the wait; the
+     * interrupt status is set again and the operations finish on their own. */
+    @Override
+    public void close() {
+        if (owned) {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // keep waiting; the operations themselves never block for long
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,1447 @@
+package binarytree;
+
+import java.lang.ref.Cleaner;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/* Original: https://arxiv.org/pdf/1702.04441.pdf *
+ * "A Concurrency-Optimal Binary Search Tree" (Aksenov, Gramoli, Kuznetsov et al.) */
+
+public class BinaryTree extends AbstractBinaryTree<BinaryTree.Node> implements IntSet {
+    /* The key and, through meter, the tree's metrics; the links and the
+     * lock word are TreeNode's. With the state and deleted flags in the lock
+     * word a Node is 32 bytes (header, links, word, meter, value) instead of
+     * 48, so far more nodes sit within one cache line. It is static, so that
+     * nodes in a thread's pool or retired list do not keep a dropped tree
+     * alive. */
+    public static class Node extends TreeNode<Node> {
+        public volatile int value;
+        private final Meter meter;
+
+        private Node(int value, Meter meter) {
+            this.value = value;
+            this.meter = meter;
+        }
+
+        /* Turns a recycled node into a fresh leaf holding value. */
+        private void reuse(int value) {
+            this.value = value;
+            this.left = null;
+            this.right = null;
+            clearFlags();
+        }
+
+        @Override
+        boolean sameKey(Node other) {
+            return value == other.value;
+        }
+
+        @Override
+        void lockFailed(int bit) {
+            TreeMetrics m = meter.metrics;
+            if (m != null) {
+                m.lockFailed(bit == STATE_READ ? TreeMetrics.Lock.STATE_READ
+                        : bit == STATE_WRITE ? TreeMetrics.Lock.STATE_WRITE : TreeMetrics.Lock.CHILD);
+            }
+        }
+    }
+
+    /* The sentinel above every key: all keys hang off root.left and its own
+     * value is never compared (see isLeft), so the whole int domain can be
+     * stored. It stays DATA and is never deleted. */
+    private final Node root;
+
+    private final boolean hashed;
+    private final LongAdder insertRetries = new LongAdder();
+    private final LongAdder deleteRetries = new LongAdder();
+    private volatile SnapCollector collector;
+    /* Holds the metrics, null unless enableMetrics() was called: the
+     * single-key operations then take their instrumented paths. */
+    private final Meter meter = new Meter();
+    /* Node recycling, null unless the tree was created with it. */
+    private final EpochReclaimer epochs;
+    private final ThreadLocal<NodePool> pools;
+    private final LongAdder recycledNodes;
+    /* A lock rather than a monitor: a virtual thread waiting on a monitor
+     * keeps its carrier thread. */
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    public BinaryTree() {
+        this(ContentionPolicy.SPIN);
+    }
+
+    public BinaryTree(ContentionPolicy policy) {
+        this(policy, KeyOrder.NATURAL);
+    }
+
+    public BinaryTree(ContentionPolicy policy, KeyOrder order) {
+        this(policy, order, false);
+    }
+
+    /* With recycleNodes, nodes that delete and compact unlink are reused by
+     * later inserts instead of being left to the GC. Every operation, batch,
+     * iterator and snapshot then runs inside an epoch of an EpochReclaimer,
+     * and a node only goes back to a pool two epochs after it was unlinked,
+     * when no reader that skipped through it without locks can still be on
+     * it; that is what keeps a reused node from being mistaken for the one a
+     * search saw before (ABA). The pools are per thread, so churn on a thread
+     * feeds its own inserts. The price is two volatile writes per operation;
+     * worth it for insert/delete churn, not for read-mostly trees. */
+    public BinaryTree(ContentionPolicy policy, KeyOrder order, boolean recycleNodes) {
+        super(policy);
+        this.root = new Node(0, meter);
+        this.hashed = (order == KeyOrder.HASHED);
+        if (recycleNodes) {
+            this.pools = ThreadLocal.withInitial(NodePool::new);
+            // a running snapshot still compares the nodes it collected by identity
+            this.epochs = new EpochReclaimer(this::recycle, () -> collector != null);
+            this.recycledNodes = new LongAdder();
+        } else {
+            this.epochs = null;
+            this.pools = null;
+            this.recycledNodes = null;
+        }
+    }
+
+    /* Freed nodes kept by one thread for its inserts; beyond POOL_SIZE they
+     * are left to the GC. */
+    private static final int POOL_SIZE = 1024;
+
+    /* The tree's metrics, in a cell of their own that nodes can refer to
+     * without referring to the tree. */
+    private static final class Meter {
+        volatile TreeMetrics metrics;
+    }
+
+    private static final class NodePool {
+        private final Node[] nodes = new Node[POOL_SIZE];
+        private int size;
+
+        void push(Node node) {
+            if (size < nodes.length) {
+                nodes[size++] = node;
+            }
+        }
+
+        Node pop() {
+            if (size == 0) {
+                return null;
+            }
+            Node node = nodes[--size];
+            nodes[size] = null;
+            return node;
+        }
+    }
+
+    private Node allocate(int v) {
+        if (pools != null) {
+            Node node = pools.get().pop();
+            if (node != null) {
+                node.reuse(v);
+                recycledNodes.increment();
+                return node;
+            }
+        }
+        return new Node(v, meter);
+    }
+
+    /* Called by the reclaimer on the thread that retired node. */
+    private void recycle(Node node) {
+        pools.get().push(node);
+    }
+
+    /* A node that was never linked goes straight back to the pool. */
+    private void unused(Node node) {
+        if (node != null && pools != null) {
+            pools.get().push(node);
+        }
+    }
+
+    @Override
+    void retire(Node node) {
+        if (epochs != null) {
+            epochs.retire(node);
+        }
+    }
+
+    /* With recycling, everything that reads nodes runs between these two;
+     * otherwise they do nothing. */
+    private EpochReclaimer.Participant enter() {
+        return (epochs == null ? null : epochs.enter());
+    }
+
+    private void exit(EpochReclaimer.Participant p) {
+        if (p != null) {
+            epochs.exit(p);
+        }
+    }
+
+    public boolean isRecycling() {
+        return epochs != null;
+    }
+
+    /* Inserts that got their node from a pool instead of allocating one. */
+    public long getRecycledNodeCount() {
+        return (recycledNodes == null ? 0 : recycledNodes.sum());
+    }
+
+    /* The murmur3 finalizer. It is a bijection, so distinct keys stay
+     * distinct. */
+    static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    static int unspread(int h) {
+        h ^= h >>> 16;
+        h *= 0x7ed1b41d;
+        h ^= (h >>> 13) ^ (h >>> 26);
+        h *= 0xa5cb9243;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /* Whether v belongs in the left subtree of parent. */
+    private boolean isLeft(int v, Node parent) {
+        return (parent == root || v < parent.value);
+    }
+
+    @Override
+    boolean isLeft(Node node, Node parent) {
+        return isLeft(node.value, parent);
+    }
+
+    private int key(int v) {
+        return (hashed ? spread(v) : v);
+    }
+
+    /* Bulk load: a perfectly balanced tree over the distinct keys, built in
+     * O(n) when they come sorted (otherwise they are sorted first). Large
+     * inputs are built with fork-join. The result is an ordinary tree, open
+     * to concurrent insert/delete/contains. */
+    public static BinaryTree build(int[] keys) {
+        return build(keys, ContentionPolicy.SPIN);
+    }
+
+    public static BinaryTree build(IntStream keys) {
+        return build(keys.toArray(), ContentionPolicy.SPIN);
+    }
+
+    public static BinaryTree build(int[] keys, ContentionPolicy policy) {
+        return build(keys, policy, KeyOrder.NATURAL);
+    }
+
+    public static BinaryTree build(int[] keys, ContentionPolicy policy, KeyOrder order) {
+        BinaryTree tree = new BinaryTree(policy, order);
+        int[] sorted = keys;
+        if (tree.hashed) {
+            sorted = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                sorted[i] = spread(keys[i]);
+            }
+        }
+        sorted = sortedDistinct(sorted);
+        tree.fill(sorted, sorted.length);
+        return tree;
+    }
+
+    /* build() for keys already known to be strictly ascending (in tree
+     * order), used as is: nothing is copied. */
+    static BinaryTree buildSorted(int[] sorted, int size, ContentionPolicy policy, KeyOrder order) {
+        BinaryTree tree = new BinaryTree(policy, order);
+        tree.fill(sorted, size);
+        return tree;
+    }
+
+    private void fill(int[] sorted, int size) {
+        if (size > BUILD_SPLIT) {
+            root.left = ForkJoinPool.commonPool().invoke(new BuildTask(sorted, 0, size));
+        } else {
+            root.left = buildSubtree(sorted, 0, size);
+        }
+        dataNodes.add(size);
+        linkedNodes.add(size);
+        maxDepth.set(32 - Integer.numberOfLeadingZeros(size));
+    }
+
+    private static final int BUILD_SPLIT = 1 << 14;
+
+    private static int[] sortedDistinct(int[] keys) {
+        int[] sorted = keys.clone();
+        boolean ascending = true;
+        for (int i = 1; i < sorted.length && ascending; i++) {
+            ascending = (sorted[i - 1] <= sorted[i]);
+        }
+        if (!ascending) {
+            Arrays.parallelSort(sorted);
+        }
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || sorted[size - 1] != sorted[i]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return (size == sorted.length ? sorted : Arrays.copyOf(sorted, size));
+    }
+
+    private Node buildSubtree(int[] sorted, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        Node node = new Node(sorted[mid], meter);
+        node.left = buildSubtree(sorted, from, mid);
+        node.right = buildSubtree(sorted, mid + 1, to);
+        return node;
+    }
+
+    private final class BuildTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] sorted;
+        private final int from;
+        private final int to;
+
+        BuildTask(int[] sorted, int from, int to) {
+            this.sorted = sorted;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Node compute() {
+            if (to - from <= BUILD_SPLIT) {
+                return buildSubtree(sorted, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            Node node = new Node(sorted[mid], meter);
+            BuildTask left = new BuildTask(sorted, from, mid);
+            left.fork();
+            node.right = new BuildTask(sorted, mid + 1, to).compute();
+            node.left = left.join();
+            return node;
+        }
+    }
+
+    /* One Window per thread, shared by all trees. A Node refers to its
+     * tree, so the window's nodes are cleared when an operation returns;
+     * otherwise every thread that ever touched a dropped tree would keep it
+     * reachable. */
+    private static final ThreadLocal<Window<Node>> WINDOW = ThreadLocal.withInitial(Window::new);
+
+    private void traversal(int v, Window<Node> window) {
+        Node gprev = null;
+        Node prev = root;
+        Node curr = root.left;
+        int depth = 1;
+        while (curr != null) {
+            int value = curr.value;
+            if (value == v) {
+                break;
+            } else {
+                gprev = prev;
+                prev = curr;
+                depth++;
+                if (v < value) {
+                    curr = curr.left;
+                } else {
+                    curr = curr.right;
+                }
+            }
+        }
+        window.gprev = gprev;
+        window.prev = prev;
+        window.curr = curr;
+        window.depth = depth;
+    }
+
+    /* The last root-to-leaf path walked by a batch operation, with the open key
+     * interval (lo, hi) each node is responsible for. For sorted batches the
+     * next search can start from the deepest node whose interval still covers
+     * the key instead of from root. A node that is not deleted is still linked
+     * and can only have gained ancestors' intervals, so starting there finds
+     * the same place a fresh traversal would. */
+    private final class Path {
+        private Node[] nodes = new Node[64];
+        private long[] lo = new long[64];
+        private long[] hi = new long[64];
+        private int size;
+
+        void seek(int v, Window<Node> window) {
+            int start = size - 1;
+            while (start > 0 && !reusable(start, v)) {
+                start--;
+            }
+            if (start <= 0) {
+                size = 0;
+                push(root, Long.MIN_VALUE, Long.MAX_VALUE);
+                start = 0;
+            }
+            size = start + 1;
+            Node gprev = (start >= 2 ? nodes[start - 2] : null);
+            Node prev = (start >= 1 ? nodes[start - 1] : null);
+            Node curr = nodes[start];
+            long low = lo[start];
+            long high = hi[start];
+            int depth = start;
+            if (start == 0) {
+                // step off the sentinel, everything is to its left
+                prev = root;
+                curr = root.left;
+                depth = 1;
+                if (curr != null) {
+                    push(curr, low, high);
+                }
+            }
+            while (curr != null) {
+                int value = curr.value;
+                if (value == v) {
+                    break;
+                }
+                gprev = prev;
+                prev = curr;
+                depth++;
+                if (v < value) {
+                    high = value;
+                    curr = curr.left;
+                } else {
+                    low = value;
+                    curr = curr.right;
+                }
+                if (curr == null) {
+                    break;
+                }
+                push(curr, low, high);
+            }
+            window.gprev = gprev;
+            window.prev = prev;
+            window.curr = curr;
+            window.depth = depth;
+        }
+
+        private boolean reusable(int i, int v) {
+            return lo[i] < v && v < hi[i]
+                    && !nodes[i].isDeleted()
+                    && !nodes[i - 1].isDeleted()
+                    && (i < 2 || !nodes[i - 2].isDeleted());
+        }
+
+        private void push(Node node, long low, long high) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * size);
+                lo = Arrays.copyOf(lo, 2 * size);
+                hi = Arrays.copyOf(hi, 2 * size);
+            }
+            nodes[size] = node;
+            lo[size] = low;
+            hi[size] = high;
+            size++;
+        }
+    }
+
+    private void locate(int v, Window<Node> window, Path path) {
+        if (path == null) {
+            traversal(v, window);
+        } else {
+            path.seek(v, window);
+        }
+    }
+
+    @Override
+    public boolean contains(int v) {
+        EpochReclaimer.Participant p = enter();
+        try {
+            TreeMetrics m = meter.metrics;
+            if (m != null) {
+                return containsMeasured(key(v), m);
+            }
+            v = key(v);
+            Node curr = root.left;
+            while (curr != null) {
+                int value = curr.value;
+                if (value == v) {
+                    return found(curr);
+                }
+                curr = (v < value) ? curr.left : curr.right;
+            }
+            return false;
+        } finally {
+            exit(p);
+        }
+    }
+
+    private boolean containsMeasured(int v, TreeMetrics m) {
+        long start = System.nanoTime();
+        Node curr = root.left;
+        int depth = 1;
+        while (curr != null) {
+            int value = curr.value;
+            if (value == v) {
+                break;
+            }
+            curr = (v < value) ? curr.left : curr.right;
+            depth++;
+        }
+        boolean result = found(curr);
+        m.record(TreeMetrics.Op.CONTAINS, System.nanoTime() - start, 0, depth);
+        return result;
+    }
+
+    /* Whether the node a search ended at holds its key. The answer is also
+     * reported to a running snapshot. */
+    private boolean found(Node curr) {
+        if (curr == null) {
+            return false;
+        }
+        boolean member = curr.isMember();
+        observed(curr);
+        return member;
+    }
+
+    @Override
+    public boolean insert(int v) {
+        EpochReclaimer.Participant p = enter();
+        Window<Node> window = WINDOW.get();
+        try {
+            TreeMetrics m = meter.metrics;
+            if (m == null) {
+                return insert(key(v), window, null);
+            }
+            long start = System.nanoTime();
+            boolean result = insert(key(v), window, null);
+            m.record(TreeMetrics.Op.INSERT, System.nanoTime() - start, window.retries, window.depth);
+            return result;
+        } finally {
+            window.clear();
+            exit(p);
+        }
+    }
+
+    private boolean insert(int v, Window<Node> window, Path path) {
+        Node newNode = null;
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                insertRetries.increment();
+                policy.pause(attempt);
+            }
+            window.retries = attempt;
+            locate(v, window, path);
+            if (window.curr == null && newNode == null) {
+                // kept across retries
+                newNode = allocate(v);
+            }
+            int outcome = insertAt(window, isLeft(v, window.prev), newNode);
+            if (outcome == LINKED) {
+                return true;
+            }
+            if (outcome != RETRY) {
+                unused(newNode);
+                return outcome == REVIVED;
+            }
+        }
+    }
+
+    /* Returns whether v was in the tree. */
+    @Override
+    public boolean delete(int v) {
+        EpochReclaimer.Participant p = enter();
+        Window<Node> window = WINDOW.get();
+        try {
+            TreeMetrics m = meter.metrics;
+            if (m == null) {
+                return delete(key(v), window, null);
+            }
+            long start = System.nanoTime();
+            boolean result = delete(key(v), window, null);
+            m.record(TreeMetrics.Op.DELETE, System.nanoTime() - start, window.retries, window.depth);
+            return result;
+        } finally {
+            window.clear();
+            exit(p);
+        }
+    }
+
+    private boolean delete(int v, Window<Node> window, Path path) {
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                deleteRetries.increment();
+                policy.pause(attempt);
+            }
+            window.retries = attempt;
+            locate(v, window, path);
+            int outcome = deleteAt(window);
+            if (outcome != RETRY) {
+                return outcome == REMOVED;
+            }
+        }
+    }
+
+    /* Compaction. delete() marks a node with two children ROUTING and unlinks
+     * a ROUTING node together with its last leaf. A ROUTING node is never
+     * left with one child or none: it only turns ROUTING under its state
+     * write lock with two children, and a leaf child goes either under its
+     * state read lock or together with it. compact() would unlink such
+     * nodes (see AbstractBinaryTree.unlinkRouting); it is a check of that
+     * invariant rather than something to run in the background, and finds
+     * nothing as long as it holds. */
+
+    /* One pass over the tree; returns the number of nodes it unlinked. Nodes
+     * whose locks are busy are skipped until the next pass. */
+    public int compact() {
+        EpochReclaimer.Participant p = enter();
+        try {
+            return compactPass();
+        } finally {
+            exit(p);
+        }
+    }
+
+    private int compactPass() {
+        int reclaimed = 0;
+        Node[] nodes = new Node[64];
+        Node[] parents = new Node[64];
+        int top = 0;
+        Node first = root.left;
+        if (first != null) {
+            nodes[top] = first;
+            parents[top++] = root;
+        }
+        while (top > 0) {
+            Node node = nodes[--top];
+            Node parent = parents[top];
+            if (top + 2 > nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+                parents = Arrays.copyOf(parents, 2 * parents.length);
+            }
+            Node left = node.left;
+            Node right = node.right;
+            Node childParent = node;
+            if (node.state() == State.ROUTING && !node.isDeleted() && (left == null || right == null)
+                    && unlinkRouting(parent, node)) {
+                reclaimed++;
+                routingNodes.decrement();
+                reclaimedRoutingNodes.increment();
+                // the remaining child now hangs off parent
+                childParent = parent;
+            }
+            if (left != null) {
+                nodes[top] = left;
+                parents[top++] = childParent;
+            }
+            if (right != null) {
+                nodes[top] = right;
+                parents[top++] = childParent;
+            }
+        }
+        return reclaimed;
+    }
+
+    /* Cardinality statistics. They are striped counters kept up to date by
+     * the updates themselves, so reading them costs O(stripes), not a walk.
+     * While updates are in flight a sum can be off by the ones in progress;
+     * once the tree is quiet the counts are exact. */
+
+    /* Number of keys in the tree. */
+    @Override
+    public long size() {
+        return dataNodes.sum();
+    }
+
+    /* Nodes below the root sentinel: size() plus the ROUTING nodes. */
+    public long getNodeCount() {
+        return linkedNodes.sum();
+    }
+
+    /* The deepest level an insert has linked a node at (root.left is 1). A
+     * high-water mark: it never goes down when nodes are removed, so it is
+     * an upper bound on height() rather than the height itself. */
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /* Current number of ROUTING nodes, i.e. of deleted keys still in the tree. */
+    public long getRoutingNodeCount() {
+        return routingNodes.sum();
+    }
+
+    /* ROUTING nodes physically removed so far, by delete or by compaction. */
+    public long getReclaimedRoutingNodes() {
+        return reclaimedRoutingNodes.sum();
+    }
+
+    /* Batch operations. Keys are sorted first, so that consecutive searches
+     * share most of their path (see Path); every key still goes through the
+     * usual insert/delete protocol. The parallel variants cut the sorted batch
+     * into key ranges and run them as fork-join tasks. */
+
+    private static final int BATCH_SPLIT = 4096;
+
+    private enum BatchOp { INSERT, DELETE, CONTAINS }
+
+    /* Returns how many keys were not in the tree yet. */
+    public int insertAll(int[] keys) {
+        return applySorted(BatchOp.INSERT, sortedKeys(keys), null, 0, keys.length);
+    }
+
+    /* Returns how many keys were in the tree. */
+    public int deleteAll(int[] keys) {
+        return applySorted(BatchOp.DELETE, sortedKeys(keys), null, 0, keys.length);
+    }
+
+    /* Sets result[i] to contains(keys[i]) and returns the number of hits. */
+    public int containsAll(int[] keys, boolean[] result) {
+        return applySorted(BatchOp.CONTAINS, sortedKeys(keys), result, 0, keys.length);
+    }
+
+    public int parallelInsertAll(int[] keys) {
+        return ForkJoinPool.commonPool().invoke(new BatchTask(BatchOp.INSERT, sortedKeys(keys), null, 0, keys.length));
+    }
+
+    public int parallelDeleteAll(int[] keys) {
+        return ForkJoinPool.commonPool().invoke(new BatchTask(BatchOp.DELETE, sortedKeys(keys), null, 0, keys.length));
+    }
+
+    public int parallelContainsAll(int[] keys, boolean[] result) {
+        return ForkJoinPool.commonPool().invoke(new BatchTask(BatchOp.CONTAINS, sortedKeys(keys), result, 0, keys.length));
+    }
+
+    /* Key in the high half, position in the caller's array in the low half:
+     * sorting these sorts by key and still tells where each result goes. */
+    private long[] sortedKeys(int[] keys) {
+        long[] sorted = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = ((long) key(keys[i]) << 32) | i;
+        }
+        if (sorted.length > BATCH_SPLIT) {
+            Arrays.parallelSort(sorted);
+        } else {
+            Arrays.sort(sorted);
+        }
+        return sorted;
+    }
+
+    private int applySorted(BatchOp op, long[] sorted, boolean[] result, int from, int to) {
+        // the path keeps nodes from one key to the next
+        EpochReclaimer.Participant p = enter();
+        Window<Node> window = WINDOW.get();
+        try {
+            Path path = new Path();
+            if (op == BatchOp.INSERT) {
+                return insertBalanced(sorted, from, to, window, path);
+            }
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int key = (int) (sorted[i] >> 32);
+                boolean hit;
+                if (op == BatchOp.DELETE) {
+                    hit = delete(key, window, path);
+                } else {
+                    path.seek(key, window);
+                    hit = found(window.curr);
+                    result[(int) sorted[i]] = hit;
+                }
+                if (hit) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            window.clear();
+            exit(p);
+        }
+    }
+
+    /* Scratch space of a CombiningBinaryTree region, used by one combiner at
+     * a time. */
+    final class CombineBuffer {
+        private final Path path = new Path();
+        private long[] order = new long[16];
+    }
+
+    CombineBuffer newCombineBuffer() {
+        return new CombineBuffer();
+    }
+
+    ContentionPolicy getPolicy() {
+        return policy;
+    }
+
+    /* For CombiningBinaryTree: applies n inserts (insert[i]) and deletes
+     * in key order along one shared path, as a batch does, and stores each
+     * one's result in result[i]. */
+    void applyCombined(int[] keys, boolean[] insert, boolean[] result, int n, CombineBuffer buffer) {
+        if (buffer.order.length < n) {
+            buffer.order = new long[Math.max(n, 2 * buffer.order.length)];
+        }
+        long[] order = buffer.order;
+        for (int i = 0; i < n; i++) {
+            order[i] = ((long) key(keys[i]) << 32) | i;
+        }
+        Arrays.sort(order, 0, n);
+        EpochReclaimer.Participant p = enter();
+        Window<Node> window = WINDOW.get();
+        try {
+            Path path = buffer.path;
+            // nodes kept from an earlier combine may have been unlinked and reused
+            path.size = 0;
+            for (int j = 0; j < n; j++) {
+                int i = (int) order[j];
+                int key = (int) (order[j] >> 32);
+                result[i] = (insert[i] ? insert(key, window, path) : delete(key, window, path));
+            }
+        } finally {
+            window.clear();
+            exit(p);
+        }
+    }
+
+    /* Inserts a key taken from sortedKeys(), which has already gone through
+     * key(); the public insert would scramble a hashed key a second time. */
+    private boolean insertSorted(int key) {
+        EpochReclaimer.Participant p = enter();
+        Window<Node> window = WINDOW.get();
+        try {
+            return insert(key, window, null);
+        } finally {
+            window.clear();
+            exit(p);
+        }
+    }
+
+    /* Inserting a sorted run one by one would hang it off the tree as a chain,
+     * so the median goes first, then the medians of both halves, and so on
+     * (pre-order of a balanced tree over the run). Consecutive keys are still
+     * mostly parent and child, so the path is still shared. */
+    private int insertBalanced(long[] sorted, int from, int to, Window<Node> window, Path path) {
+        int count = 0;
+        int[] ranges = new int[130];
+        int top = 0;
+        ranges[top++] = from;
+        ranges[top++] = to;
+        while (top > 0) {
+            int high = ranges[--top];
+            int low = ranges[--top];
+            if (low >= high) {
+                continue;
+            }
+            int mid = (low + high) >>> 1;
+            if (insert((int) (sorted[mid] >> 32), window, path)) {
+                count++;
+            }
+            ranges[top++] = mid + 1;
+            ranges[top++] = high;
+            ranges[top++] = low;
+            ranges[top++] = mid;
+        }
+        return count;
+    }
+
+    private final class BatchTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final BatchOp op;
+        private final long[] sorted;
+        private final boolean[] result;
+        private final int from;
+        private final int to;
+
+        BatchTask(BatchOp op, long[] sorted, boolean[] result, int from, int to) {
+            this.op = op;
+            this.sorted = sorted;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= BATCH_SPLIT) {
+                return applySorted(op, sorted, result, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            int count = 0;
+            int split = mid;
+            if (op == BatchOp.INSERT) {
+                // the median goes in before the halves, as in insertBalanced
+                if (insertSorted((int) (sorted[mid] >> 32))) {
+                    count++;
+                }
+                split = mid + 1;
+            }
+            BatchTask low = new BatchTask(op, sorted, result, from, mid);
+            low.fork();
+            count += new BatchTask(op, sorted, result, split, to).compute();
+            return count + low.join();
+        }
+    }
+
+    /* Number of times insert had to start over after losing a race. */
+    public long getInsertRetries() {
+        return insertRetries.sum();
+    }
+
+    /* Number of times delete had to start over after losing a race. */
+    public long getDeleteRetries() {
+        return deleteRetries.sum();
+    }
+
+    /* Number of failed attempts to take a state read lock in insert. */
+    public long getReadLockRetries() {
+        return readLockRetries.sum();
+    }
+
+    public void resetRetryCounters() {
+        insertRetries.reset();
+        deleteRetries.reset();
+        readLockRetries.reset();
+    }
+
+    /* Starts collecting TreeMetrics, or returns the ones being collected.
+     * Until then (and after disableMetrics) the operations only pay for
+     * reading one field. */
+    public synchronized TreeMetrics enableMetrics() {
+        if (meter.metrics == null) {
+            meter.metrics = new TreeMetrics();
+        }
+        return meter.metrics;
+    }
+
+    /* Stops collecting; the metrics collected so far stay readable. */
+    public void disableMetrics() {
+        meter.metrics = null;
+    }
+
+    /* The metrics being collected, or null. */
+    public TreeMetrics getMetrics() {
+        return meter.metrics;
+    }
+
+    /* Snapshots, after the snap-collector of Petrank and Timnat ("Lock-Free
+     * Data-Structure Iterators"). snapshot() installs a collector, walks the
+     * tree recording how it finds every node, then blocks the collector; that
+     * moment is the snapshot's linearization point. Meanwhile, every operation
+     * reports the node it acted on or looked at, *after* its effect: writers
+     * because the walk may already have passed the node, readers because
+     * their answer may rest on a change whose own report comes too late. A
+     * delete is reported before the node is unlinked, so nobody can insert
+     * the key again before the report is in. Reports that come after the
+     * block belong to operations that can be linearized after the snapshot.
+     * For each node the observation with the highest version wins. Writers
+     * never wait for a snapshot; they only pay one volatile read, plus an
+     * allocation per report while a snapshot is running. */
+
+    private static final class Report {
+        final Node node;
+        final long observation;
+        Report next;
+
+        Report(Node node, long observation) {
+            this.node = node;
+            this.observation = observation;
+        }
+    }
+
+    private static final Report BLOCKED = new Report(null, 0);
+
+    private static final class SnapCollector {
+        private final AtomicReference<Report> reports = new AtomicReference<>();
+
+        void report(Node node, long observation) {
+            Report report = new Report(node, observation);
+            while (true) {
+                Report head = reports.get();
+                if (head == BLOCKED) {
+                    return;
+                }
+                report.next = head;
+                if (reports.compareAndSet(head, report)) {
+                    return;
+                }
+            }
+        }
+
+        Report block() {
+            return reports.getAndSet(BLOCKED);
+        }
+    }
+
+    @Override
+    void observed(Node node) {
+        SnapCollector c = collector;
+        if (c != null) {
+            c.report(node, node.observe());
+        }
+    }
+
+    @Override
+    void markDeleted(Node curr) {
+        curr.setDeleted();
+        observed(curr);
+    }
+
+    /* A consistent, immutable copy of the set as it was at some moment during
+     * the call. Costs a walk over the tree, i.e. O(1) amortized per key of the
+     * result; concurrent snapshot() calls take turns, writers are not held up. */
+    public Snapshot snapshot() {
+        snapshotLock.lock();
+        EpochReclaimer.Participant p = enter();
+        try {
+            SnapCollector c = new SnapCollector();
+            collector = c;
+            Node[] nodes = new Node[1024];
+            long[] observations = new long[1024];
+            int count = 0;
+            Node[] stack = new Node[64];
+            int top = 0;
+            Node first = root.left;
+            if (first != null) {
+                stack[top++] = first;
+            }
+            while (top > 0) {
+                Node node = stack[--top];
+                if (count == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, 2 * count);
+                    observations = Arrays.copyOf(observations, 2 * count);
+                }
+                nodes[count] = node;
+                observations[count++] = node.observe();
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * stack.length);
+                }
+                Node left = node.left;
+                Node right = node.right;
+                if (left != null) {
+                    stack[top++] = left;
+                }
+                if (right != null) {
+                    stack[top++] = right;
+                }
+            }
+            Report reports = c.block();
+
+            IdentityHashMap<Node, Long> latest = new IdentityHashMap<>();
+            for (Report r = reports; r != null; r = r.next) {
+                latest.merge(r.node, r.observation, Math::max);
+            }
+            // The walk can meet a node twice (its parent got unlinked under
+            // the walk), and a stale visit must not win over a newer one, so
+            // visits are grouped by key and every node takes its newest
+            // observation, including reports.
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = ((long) nodes[i].value << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] keys = new int[count + latest.size()];
+            int size = 0;
+            for (int from = 0; from < count; ) {
+                int key = (int) (order[from] >> 32);
+                int to = from + 1;
+                while (to < count && (int) (order[to] >> 32) == key) {
+                    to++;
+                }
+                boolean member = false;
+                for (int i = from; i < to; i++) {
+                    Node node = nodes[(int) order[i]];
+                    long newest = latest.getOrDefault(node, 0L);
+                    for (int j = from; j < to; j++) {
+                        if (nodes[(int) order[j]] == node) {
+                            newest = Math.max(newest, observations[(int) order[j]]);
+                        }
+                    }
+                    member |= ((newest & 1) != 0);
+                }
+                for (int i = from; i < to; i++) {
+                    latest.remove(nodes[(int) order[i]]);
+                }
+                if (member) {
+                    keys[size++] = key;
+                }
+                from = to;
+            }
+            // nodes the walk never met
+            for (Map.Entry<Node, Long> entry : latest.entrySet()) {
+                if ((entry.getValue() & 1) != 0) {
+                    keys[size++] = entry.getKey().value;
+                }
+            }
+            // only now may reported nodes be recycled
+            collector = null;
+            if (hashed) {
+                for (int i = 0; i < size; i++) {
+                    keys[i] = unspread(keys[i]);
+                }
+            }
+            return new Snapshot(keys, size);
+        } finally {
+            exit(p);
+            snapshotLock.unlock();
+        }
+    }
+
+    /* Ordered traversal. The iterators walk the tree in order with an explicit
+     * stack, so depth is not limited by the call stack, and they run alongside
+     * writers without locking. They are weakly consistent: every key present
+     * for the whole iteration is returned, keys added or removed meanwhile may
+     * or may not be. A node that gets unlinked under the iterator keeps its
+     * child pointers, so the walk carries on into the live subtrees; keys are
+     * only returned if they are larger than the last one returned, so nothing
+     * comes twice or out of order. With KeyOrder.HASHED the order is that of
+     * the scrambled keys and ranges are not supported.
+     *
+     * On a recycling tree an iterator pins an epoch until it is exhausted,
+     * which holds up recycling on all threads meanwhile; one that is dropped
+     * half way releases its pin when it is garbage collected. */
+
+    public PrimitiveIterator.OfInt iterator() {
+        return new TreeIterator(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /* Keys k with lo <= k < hi, in ascending order. */
+    public PrimitiveIterator.OfInt range(int lo, int hi) {
+        if (hashed) {
+            throw new UnsupportedOperationException("range scans need KeyOrder.NATURAL");
+        }
+        return new TreeIterator(lo, hi);
+    }
+
+    /* Keys k with lo <= k <= hi, in ascending order; unlike range(), it can
+     * reach Integer.MAX_VALUE. */
+    public PrimitiveIterator.OfInt rangeClosed(int lo, int hi) {
+        if (hashed) {
+            throw new UnsupportedOperationException("range scans need KeyOrder.NATURAL");
+        }
+        return new TreeIterator(lo, (long) hi + 1);
+    }
+
+    public void forEach(IntConsumer action) {
+        TreeIterator iterator = new TreeIterator(Long.MIN_VALUE, Long.MAX_VALUE);
+        try {
+            iterator.forEachRemaining(action);
+        } finally {
+            iterator.release();
+        }
+    }
+
+    /* Aggregates. The spliterator splits a key range at the node where the
+     * search paths of its two ends part, so both halves are whole subtrees
+     * and the split follows the shape of the tree; each part is then walked
+     * like a range iterator, with the same weak consistency. The parallel
+     * operations run the parts as fork-join tasks of the pool they are
+     * called from (the common pool unless called inside another). */
+
+    public Spliterator.OfInt spliterator() {
+        return new TreeSpliterator(Long.MIN_VALUE, Long.MAX_VALUE, size());
+    }
+
+    public IntStream stream() {
+        return StreamSupport.intStream(spliterator(), false);
+    }
+
+    public IntStream parallelStream() {
+        return StreamSupport.intStream(spliterator(), true);
+    }
+
+    /* action is called concurrently, in no particular order. */
+    public void parallelForEach(IntConsumer action) {
+        parallelStream().forEach(action);
+    }
+
+    /* op must be associative, with identity as its neutral element. */
+    public int reduce(int identity, IntBinaryOperator op) {
+        return parallelStream().reduce(identity, op);
+    }
+
+    public long sum() {
+        return parallelStream().asLongStream().sum();
+    }
+
+    /* Number of keys k with lo <= k < hi. */
+    public long countInRange(int lo, int hi) {
+        return count(lo, hi);
+    }
+
+    /* Number of keys k with lo <= k <= hi; unlike countInRange(), it can
+     * count Integer.MAX_VALUE. */
+    public long countInRangeClosed(int lo, int hi) {
+        return count(lo, (long) hi + 1);
+    }
+
+    private long count(long lo, long hi) {
+        if (hashed) {
+            throw new UnsupportedOperationException("range scans need KeyOrder.NATURAL");
+        }
+        if (lo >= hi) {
+            return 0;
+        }
+        return StreamSupport.intStream(new TreeSpliterator(lo, hi, size()), true).count();
+    }
+
+    private final class TreeSpliterator implements Spliterator.OfInt {
+        private long lo;
+        private final long hi;
+        private long estimate;
+        /* Created on the first key, after which the range no longer splits. */
+        private TreeIterator iterator;
+
+        TreeSpliterator(long lo, long hi, long estimate) {
+            this.lo = lo;
+            this.hi = hi;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            if (iterator != null) {
+                return null;
+            }
+            EpochReclaimer.Participant p = enter();
+            try {
+                Node node = root.left;
+                while (node != null) {
+                    int value = node.value;
+                    if (value <= lo) {
+                        node = node.right;
+                    } else if (value >= hi) {
+                        node = node.left;
+                    } else {
+                        estimate >>>= 1;
+                        TreeSpliterator prefix = new TreeSpliterator(lo, value, estimate);
+                        lo = value;
+                        return prefix;
+                    }
+                }
+                return null;
+            } finally {
+                exit(p);
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (iterator == null) {
+                iterator = new TreeIterator(lo, hi);
+            }
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            action.accept(iterator.nextInt());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            if (iterator == null) {
+                iterator = new TreeIterator(lo, hi);
+            }
+            try {
+                iterator.forEachRemaining(action);
+            } finally {
+                iterator.release();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return DISTINCT | NONNULL | (hashed ? 0 : ORDERED | SORTED);
+        }
+
+        @Override
+        public Comparator<? super Integer> getComparator() {
+            if (hashed) {
+                throw new IllegalStateException();
+            }
+            // natural order
+            return null;
+        }
+    }
+
+    /* Created on first use, most trees never need it. */
+    private static final class Pins {
+        static final Cleaner CLEANER = Cleaner.create();
+    }
+
+    /* Must not refer to the iterator, or it would never become unreachable. */
+    private static final class Unpin implements Runnable {
+        private final EpochReclaimer epochs;
+        private final EpochReclaimer.Participant pin;
+
+        Unpin(EpochReclaimer epochs, EpochReclaimer.Participant pin) {
+            this.epochs = epochs;
+            this.pin = pin;
+        }
+
+        @Override
+        public void run() {
+            epochs.unpin(pin);
+        }
+    }
+
+    private final class TreeIterator implements PrimitiveIterator.OfInt {
+        private final long lo;
+        private final long hi;
+        private Node[] stack = new Node[64];
+        private int top;
+        private long last = Long.MIN_VALUE;
+        private boolean ready;
+        private int next;
+        private Cleaner.Cleanable pin;
+
+        TreeIterator(long lo, long hi) {
+            this.lo = lo;
+            this.hi = hi;
+            if (epochs != null) {
+                pin = Pins.CLEANER.register(this, new Unpin(epochs, epochs.pin()));
+            }
+            descend(root.left);
+        }
+
+        private void release() {
+            if (pin != null) {
+                pin.clean();
+                pin = null;
+            }
+        }
+
+        /* Pushes the path to the smallest key >= lo under node. */
+        private void descend(Node node) {
+            while (node != null) {
+                if (node.value < lo) {
+                    node = node.right;
+                } else {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * top);
+                    }
+                    stack[top++] = node;
+                    node = node.left;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!ready && top > 0) {
+                Node node = stack[--top];
+                int value = node.value;
+                if (value >= hi) {
+                    top = 0;
+                    break;
+                }
+                descend(node.right);
+                if (value > last && node.isMember()) {
+                    last = value;
+                    next = value;
+                    ready = true;
+                }
+            }
+            if (!ready) {
+                top = 0;
+                release();
+            }
+            return ready;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            return (hashed ? unspread(next) : next);
+        }
+    }
+
+    /* Number of levels below the root sentinel. Walks the whole tree, so it
+     * is a diagnostic, not something to call on a hot path. */
+    public int height() {
+        EpochReclaimer.Participant p = enter();
+        try {
+            return walkHeight();
+        } finally {
+            exit(p);
+        }
+    }
+
+    private int walkHeight() {
+        Node[] nodes = new Node[64];
+        int[] depths = new int[64];
+        int top = 0;
+        int height = 0;
+        Node first = root.left;
+        if (first != null) {
+            nodes[top] = first;
+            depths[top++] = 1;
+        }
+        while (top > 0) {
+            Node node = nodes[--top];
+            int depth = depths[top];
+            height = Math.max(height, depth);
+            if (top + 2 > nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+                depths = Arrays.copyOf(depths, 2 * depths.length);
+            }
+            Node left = node.left;
+            Node right = node.right;
+            if (left != null) {
+                nodes[top] = left;
+                depths[top++] = depth + 1;
+            }
+            if (right != null) {
+                nodes[top] = right;
+                depths[top++] = depth + 1;
+            }
+        }
+        return height;
+    }
+
+    private void print(Node node, int lvl) {
+        if (node == null) {
+            return;
+        }
+        print(node.left, lvl+1);
+        print(node.right, lvl+1);
+        for (int i = 0; i < lvl; i++) {
+            System.out.print("-");
+        }
+        if (node.isMember()) {
+            System.out.printf("(%d)\n", node.value);
+        } else {
+            System.out.printf("x%dx\n", node.value);
+        }
+    }
+
+    public void printTree() {
+        EpochReclaimer.Participant p = enter();
+        try {
+            print(root.left, 1);
+        } finally {
+            exit(p);
+        }
+        System.out.println();
+    }
+
+
+}
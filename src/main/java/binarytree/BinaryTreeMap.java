@@ -0,0 +1,225 @@
+package binarytree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+/* An ordered concurrent map from int keys to values, on the BinaryTree
+ * algorithm. Every node has a value slot next to its key: a DATA node maps
+ * its key to the value, a ROUTING node keeps none. The slot only changes
+ * - under the state write lock, when insertAt turns a ROUTING node into
+ *   DATA (set before the state changes) or deleteAt takes a node out of
+ *   the map (cleared once it cannot back out), or
+ * - on a DATA node that put() holds the state read lock of, which keeps
+ *   remove from changing state meanwhile.
+ * get() takes no locks: it reads the value between two observations of
+ * the lock word (see TreeNode.observe()), so it never pairs a value with a
+ * state it did not have. Null values are not allowed, as in
+ * ConcurrentSkipListMap. */
+public class BinaryTreeMap<V> extends AbstractBinaryTree<BinaryTreeMap<V>.Node> {
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(BinaryTreeMap.Node.class, "value", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public class Node extends TreeNode<Node> {
+        public volatile int key;
+        private volatile Object value;
+
+        public Node(int key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        /* The node's value if it is in the map, otherwise null. */
+        @SuppressWarnings("unchecked")
+        V read() {
+            while (true) {
+                long before = observe();
+                if ((before & 1) == 0) {
+                    return null;
+                }
+                Object v = value;
+                if (observe() == before) {
+                    return (V) v;
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        boolean sameKey(Node other) {
+            return key == other.key;
+        }
+    }
+
+    /* The sentinel above every key, see BinaryTree.root. */
+    private final Node root = new Node(0, null);
+
+    /* See BinaryTree.Window; this one is per map, as Node depends on V. */
+    private final ThreadLocal<Window<Node>> windows = ThreadLocal.withInitial(Window::new);
+
+    public BinaryTreeMap() {
+        this(ContentionPolicy.SPIN);
+    }
+
+    public BinaryTreeMap(ContentionPolicy policy) {
+        super(policy);
+    }
+
+    private boolean isLeft(int k, Node parent) {
+        return (parent == root || k < parent.key);
+    }
+
+    @Override
+    boolean isLeft(Node node, Node parent) {
+        return isLeft(node.key, parent);
+    }
+
+    @Override
+    void revive(Node node, Window<Node> window) {
+        node.value = window.value;
+    }
+
+    @Override
+    void unmap(Node node, Window<Node> window) {
+        window.value = node.value;
+        node.value = null;
+    }
+
+    private void traversal(int k, Window<Node> window) {
+        Node gprev = null;
+        Node prev = root;
+        Node curr = root.left;
+        while (curr != null) {
+            int key = curr.key;
+            if (key == k) {
+                break;
+            }
+            gprev = prev;
+            prev = curr;
+            curr = (k < key) ? curr.left : curr.right;
+        }
+        window.gprev = gprev;
+        window.prev = prev;
+        window.curr = curr;
+    }
+
+    /* Lock-free, like BinaryTree.contains(). */
+    public V get(int k) {
+        Node curr = root.left;
+        while (curr != null) {
+            int key = curr.key;
+            if (key == k) {
+                return curr.read();
+            }
+            curr = (k < key) ? curr.left : curr.right;
+        }
+        return null;
+    }
+
+    public boolean containsKey(int k) {
+        return get(k) != null;
+    }
+
+    public V getOrDefault(int k, V defaultValue) {
+        V v = get(k);
+        return (v != null ? v : defaultValue);
+    }
+
+    /* Returns the previous value, or null if k was not mapped. */
+    public V put(int k, V value) {
+        return put(k, Objects.requireNonNull(value), false);
+    }
+
+    /* Returns the current value if k is mapped (and leaves it), else null. */
+    public V putIfAbsent(int k, V value) {
+        return put(k, Objects.requireNonNull(value), true);
+    }
+
+    /* As in ConcurrentSkipListMap, the function may run although another
+     * thread maps k meanwhile; the value that ends up in the map wins and is
+     * returned. A null result leaves the map unchanged. */
+    public V computeIfAbsent(int k, IntFunction<? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        V v = get(k);
+        if (v != null) {
+            return v;
+        }
+        V computed = mappingFunction.apply(k);
+        if (computed == null) {
+            return null;
+        }
+        V previous = put(k, computed, true);
+        return (previous != null ? previous : computed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(int k, V value, boolean onlyIfAbsent) {
+        Window<Node> window = windows.get();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 0) {
+                    policy.pause(attempt);
+                }
+                traversal(k, window);
+                window.value = value;
+                Node node = (window.curr == null ? new Node(k, value) : null);
+                int outcome = insertAt(window, isLeft(k, window.prev), node);
+                if (outcome == LINKED || outcome == REVIVED) {
+                    return null;
+                }
+                if (outcome == PRESENT) {
+                    Node curr = window.curr;
+                    if (onlyIfAbsent) {
+                        V current = curr.read();
+                        if (current != null) {
+                            return current;
+                        }
+                    } else if (curr.tryReadLockState(State.DATA)) {
+                        V old = (V) VALUE.getAndSet(curr, value);
+                        curr.unlockRead();
+                        return old;
+                    }
+                }
+            }
+        } finally {
+            window.clear();
+        }
+    }
+
+    /* Returns the value k was mapped to, or null if it was not. */
+    @SuppressWarnings("unchecked")
+    public V remove(int k) {
+        Window<Node> window = windows.get();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 0) {
+                    policy.pause(attempt);
+                }
+                traversal(k, window);
+                int outcome = deleteAt(window);
+                if (outcome != RETRY) {
+                    return (outcome == REMOVED ? (V) window.value : null);
+                }
+            }
+        } finally {
+            window.clear();
+        }
+    }
+
+    /* Number of mappings; see BinaryTree.size(). */
+    public long size() {
+        return dataNodes.sum();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,175 @@
+package binarytree;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* A bounded cache of contains() answers in front of an IntSet, for skewed
+ * lookup traffic where a few hot keys would otherwise walk the same tree
+ * path over and over. Updates must go through this wrapper.
+ *
+ * The cache is set-associative: each key hashes to a set of WAYS slots,
+ * and a full set evicts with CLOCK (a hit sets the slot's reference bit, the
+ * hand clears bits until it finds a slot without one). A slot is a single
+ * long holding key, answer and the version it was read at, so readers
+ * never see half an entry, and racing stores just overwrite each other.
+ *
+ * Correctness comes from versions, not from removing entries on write.
+ * Keys hash to stripes, and a stripe word counts the writers inside an
+ * update (low half) and the updates completed (high half). An entry is
+ * only stored when no update to its stripe was in flight while it was
+ * read from the set. It is only used while the stripe is still at the
+ * version it was stored with and idle. Any update to the stripe since
+ * the read makes it stale, so a hit is an answer the set could have
+ * given at that moment. */
+public class CachedIntSet implements IntSet {
+    private static final int WAYS = 4;
+    private static final int STRIPES = 4096;
+    private static final long WRITER = 1L;
+    private static final long COMPLETED = 1L << 32;
+    private static final long VALID = 1L;
+    private static final long PRESENT = 2L;
+    /* Bits of the completed-update count kept in an entry. */
+    private static final long VERSION_MASK = (1L << 30) - 1;
+
+    private final IntSet set;
+    private final AtomicLongArray slots;
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES);
+    /* CLOCK state. Plain racy bytes: a lost update only costs precision. */
+    private final byte[] referenced;
+    private final byte[] hands;
+    private final int setMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypasses = new LongAdder();
+
+    /* capacity is rounded up to a power of two of at least WAYS entries. */
+    public CachedIntSet(IntSet set, int capacity) {
+        int size = Math.max(WAYS, Integer.highestOneBit(Math.max(1, capacity - 1) << 1));
+        this.set = set;
+        this.slots = new AtomicLongArray(size);
+        this.referenced = new byte[size];
+        this.hands = new byte[size / WAYS];
+        this.setMask = size / WAYS - 1;
+    }
+
+    private static int stripe(int hash) {
+        return hash >>> 20 & (STRIPES - 1);
+    }
+
+    private static long entry(int key, boolean present, long stripe) {
+        long version = (stripe >>> 32) & VERSION_MASK;
+        return ((long) key << 32) | (version << 2) | (present ? PRESENT : 0) | VALID;
+    }
+
+    @Override
+    public boolean contains(int v) {
+        int hash = BinaryTree.spread(v);
+        long stripe = stripes.get(stripe(hash));
+        if ((int) stripe != 0) {
+            // an update to this stripe is in flight, neither trust nor fill the cache
+            bypasses.increment();
+            return set.contains(v);
+        }
+        int base = (hash & setMask) * WAYS;
+        long valid = entry(v, false, stripe);
+        for (int i = base; i < base + WAYS; i++) {
+            long slot = slots.get(i);
+            if ((slot & ~PRESENT) == valid) {
+                if (referenced[i] == 0) {
+                    referenced[i] = 1;
+                }
+                hits.increment();
+                return (slot & PRESENT) != 0;
+            }
+        }
+        misses.increment();
+        boolean present = set.contains(v);
+        if (stripes.get(stripe(hash)) == stripe) {
+            store(base, v, entry(v, present, stripe));
+        }
+        return present;
+    }
+
+    private void store(int base, int v, long entry) {
+        // the key's own slot if it has a stale one, else a free one, else the CLOCK victim
+        int victim = -1;
+        for (int i = base; i < base + WAYS; i++) {
+            long slot = slots.get(i);
+            if ((slot & VALID) == 0 || (int) (slot >>> 32) == v) {
+                victim = i;
+                break;
+            }
+        }
+        if (victim < 0) {
+            int set = base / WAYS;
+            int hand = hands[set];
+            while (referenced[base + hand] != 0) {
+                referenced[base + hand] = 0;
+                hand = (hand + 1) & (WAYS - 1);
+            }
+            victim = base + hand;
+            hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+        }
+        referenced[victim] = 0;
+        slots.set(victim, entry);
+    }
+
+    @Override
+    public boolean insert(int v) {
+        int stripe = stripe(BinaryTree.spread(v));
+        stripes.getAndAdd(stripe, WRITER);
+        try {
+            return set.insert(v);
+        } finally {
+            stripes.getAndAdd(stripe, COMPLETED - WRITER);
+        }
+    }
+
+    @Override
+    public boolean delete(int v) {
+        int stripe = stripe(BinaryTree.spread(v));
+        stripes.getAndAdd(stripe, WRITER);
+        try {
+            return set.delete(v);
+        } finally {
+            stripes.getAndAdd(stripe, COMPLETED - WRITER);
+        }
+    }
+
+    @Override
+    public long size() {
+        return set.size();
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /* Lookups answered from the cache. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /* Lookups that went to the set and may have filled a slot. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /* Lookups that went to the set because an update to the key's stripe
+     * was in flight. */
+    public long getBypasses() {
+        return bypasses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses() + getBypasses();
+        return (total == 0 ? 0 : (double) hits / total);
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        bypasses.reset();
+    }
+}
@@ -0,0 +1,194 @@
+package binarytree;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/* Checkpoints of a BinaryTree's keys, written and read through memory-mapped
+ * files. A checkpoint is a snapshot() of the tree, so writers carry on while
+ * it is taken and the file holds the set as of one moment. Layout:
+ *
+ *   magic "BTCP" | format 1 | key count (long) | payload bytes (long) | CRC32 of payload (long)
+ *   payload: the keys in ascending order, delta-encoded as unsigned LEB128
+ *            varints; the first key is biased by 2^31 so that it is >= 0
+ *
+ * Dense key sets take 1-2 bytes per key. load() decodes straight into a
+ * sorted array and bulk-loads a balanced tree from it (see build()).
+ * The file is written beside the target and moved over it, so a crash
+ * mid-write leaves the previous checkpoint intact. */
+public final class Checkpoint {
+    private static final int MAGIC = 0x42544350;
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 32;
+    /* Mapped regions are moved along the file in steps of at most this. */
+    private static final int REGION = 1 << 30;
+
+    private Checkpoint() {
+    }
+
+    /* Returns the number of keys written. */
+    public static int write(BinaryTree tree, Path file) throws IOException {
+        return write(tree.snapshot(), file);
+    }
+
+    public static int write(Snapshot snapshot, Path file) throws IOException {
+        int[] keys = snapshot.toArray();
+        long payload = 0;
+        long previous = Integer.MIN_VALUE;
+        for (int key : keys) {
+            payload += varintBytes(key - previous);
+            previous = key;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            Region region = new Region(channel, FileChannel.MapMode.READ_WRITE, HEADER_BYTES + payload);
+            region.seek(HEADER_BYTES);
+            previous = Integer.MIN_VALUE;
+            for (int key : keys) {
+                MappedByteBuffer buffer = region.ensure(5, crc);
+                long delta = key - previous;
+                while (delta >= 0x80) {
+                    buffer.put((byte) (delta | 0x80));
+                    delta >>>= 7;
+                }
+                buffer.put((byte) delta);
+                previous = key;
+            }
+            region.finish(crc);
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(keys.length).putLong(payload).putLong(crc.getValue());
+            header.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return keys.length;
+    }
+
+    public static BinaryTree load(Path file) throws IOException {
+        return load(file, ContentionPolicy.SPIN, KeyOrder.NATURAL);
+    }
+
+    public static BinaryTree load(Path file, ContentionPolicy policy, KeyOrder order) throws IOException {
+        int[] keys = readKeys(file);
+        if (order == KeyOrder.NATURAL) {
+            return BinaryTree.buildSorted(keys, keys.length, policy, order);
+        }
+        return BinaryTree.build(keys, policy, order);
+    }
+
+    /* The keys of a checkpoint, in ascending order. */
+    public static int[] readKeys(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                throw corrupt(file, "truncated header");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT) {
+                throw corrupt(file, "not a checkpoint");
+            }
+            long count = header.getLong();
+            long payload = header.getLong();
+            long checksum = header.getLong();
+            if (count < 0 || count > Integer.MAX_VALUE || payload != fileSize - HEADER_BYTES) {
+                throw corrupt(file, "bad header");
+            }
+            int[] keys = new int[(int) count];
+            CRC32 crc = new CRC32();
+            Region region = new Region(channel, FileChannel.MapMode.READ_ONLY, fileSize);
+            region.seek(HEADER_BYTES);
+            long previous = Integer.MIN_VALUE;
+            for (int i = 0; i < keys.length; i++) {
+                MappedByteBuffer buffer = region.ensure(5, crc);
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    if (!buffer.hasRemaining() || shift > 28) {
+                        throw corrupt(file, "bad varint");
+                    }
+                    b = buffer.get();
+                    delta |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                long key = previous + delta;
+                if ((delta == 0 && i > 0) || key > Integer.MAX_VALUE) {
+                    throw corrupt(file, "keys out of order");
+                }
+                keys[i] = (int) key;
+                previous = key;
+            }
+            region.finish(crc);
+            if (region.position() != fileSize || crc.getValue() != checksum) {
+                throw corrupt(file, "checksum mismatch");
+            }
+            return keys;
+        }
+    }
+
+    private static IOException corrupt(Path file, String reason) {
+        return new IOException(file + ": corrupt checkpoint (" + reason + ")");
+    }
+
+    private static int varintBytes(long value) {
+        int bytes = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    /* A window of up to REGION bytes mapped over the file, moved forward when
+     * fewer than the needed bytes are left in it. Bytes are added to the
+     * CRC as the window moves past them. */
+    private static final class Region {
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private final long fileSize;
+        private MappedByteBuffer buffer;
+        private long start;
+
+        Region(FileChannel channel, FileChannel.MapMode mode, long fileSize) {
+            this.channel = channel;
+            this.mode = mode;
+            this.fileSize = fileSize;
+        }
+
+        void seek(long position) throws IOException {
+            start = position;
+            buffer = channel.map(mode, start, Math.min(REGION, fileSize - start));
+        }
+
+        long position() {
+            return start + buffer.position();
+        }
+
+        MappedByteBuffer ensure(int needed, CRC32 crc) throws IOException {
+            if (buffer.remaining() < needed && start + buffer.limit() < fileSize) {
+                long position = position();
+                finish(crc);
+                seek(position);
+            }
+            return buffer;
+        }
+
+        /* Done with the bytes before the current position. */
+        void finish(CRC32 crc) {
+            crc.update(buffer.duplicate().flip());
+            if (mode == FileChannel.MapMode.READ_WRITE) {
+                buffer.force();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package binarytree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Flat combining in front of a BinaryTree, for write-hot key ranges. When
+ * many threads update the same subtree, most of their try-locks fail and
+ * each failure sends the thread back to root. Here a thread that gets the
+ * combiner lock of its key's region applies its own insert or delete
+ * together with everything pending in the region's publication array, as
+ * a sorted batch along one shared path (see BinaryTree.applyCombined).
+ * A thread that finds the lock taken publishes its update there and waits
+ * for a combiner to apply it, pausing between its own attempts to combine
+ * as the tree's ContentionPolicy says. The combined updates still go
+ * through the tree's own locking, so the tree may be updated directly at
+ * the same time.
+ *
+ * Regions are blocks of 2^blockBits consecutive keys, hashed to the
+ * region array, so a hot key range lands on few regions and its updates
+ * combine. contains() never waits for a combiner: reads take no locks in
+ * the tree anyway. */
+public class CombiningBinaryTree implements IntSet {
+    /* Publication slots per region; a thread that finds them all taken
+     * updates the tree itself. */
+    private static final int SLOTS = 32;
+
+    private static final int FREE = 0;
+    private static final int PENDING = 1;
+    private static final int CLAIMED = 2;
+    private static final int DONE = 3;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Request.class, "state", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /* A thread's pending update, reused for all of its operations. A
+     * combiner claims it with a CAS on state before reading it, so a
+     * request is applied exactly once even if a combiner still holds it
+     * from a slot its owner has since left. */
+    private static final class Request {
+        volatile int state = FREE;
+        int key;
+        boolean insert;
+        boolean result;
+    }
+
+    private final class Region {
+        final AtomicInteger combiner = new AtomicInteger();
+        final AtomicReferenceArray<Request> slots = new AtomicReferenceArray<>(SLOTS);
+        // the combiner's scratch space
+        final Request[] claimed = new Request[SLOTS];
+        final int[] keys = new int[SLOTS];
+        final boolean[] insert = new boolean[SLOTS];
+        final boolean[] result = new boolean[SLOTS];
+        final BinaryTree.CombineBuffer buffer = tree.newCombineBuffer();
+    }
+
+    private final BinaryTree tree;
+    private final Region[] regions;
+    private final int blockBits;
+    private final ThreadLocal<Request> request = ThreadLocal.withInitial(Request::new);
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final ThreadLocal<Integer> homeSlot = ThreadLocal.withInitial(() -> nextSlot.getAndIncrement() & (SLOTS - 1));
+    private final LongAdder combined = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder direct = new LongAdder();
+
+    /* 64 regions of 1024 keys. */
+    public CombiningBinaryTree(BinaryTree tree) {
+        this(tree, 64, 10);
+    }
+
+    /* regions is rounded up to a power of two. */
+    public CombiningBinaryTree(BinaryTree tree, int regions, int blockBits) {
+        if (regions < 1 || blockBits < 0 || blockBits > 31) {
+            throw new IllegalArgumentException("regions " + regions + ", blockBits " + blockBits);
+        }
+        this.tree = tree;
+        this.blockBits = blockBits;
+        this.regions = new Region[regions == 1 ? 1 : Integer.highestOneBit(regions - 1) << 1];
+        for (int i = 0; i < this.regions.length; i++) {
+            this.regions[i] = new Region();
+        }
+    }
+
+    public BinaryTree getTree() {
+        return tree;
+    }
+
+    public int getRegionCount() {
+        return regions.length;
+    }
+
+    private Region region(int v) {
+        int block = v >> blockBits;
+        return regions[(block * 0x9E3779B1 >>> 16) & (regions.length - 1)];
+    }
+
+    @Override
+    public boolean contains(int v) {
+        return tree.contains(v);
+    }
+
+    @Override
+    public boolean insert(int v) {
+        return update(v, true);
+    }
+
+    @Override
+    public boolean delete(int v) {
+        return update(v, false);
+    }
+
+    @Override
+    public long size() {
+        return tree.size();
+    }
+
+    private boolean update(int v, boolean insert) {
+        Region region = region(v);
+        Request q = request.get();
+        q.key = v;
+        q.insert = insert;
+        if (tryCombine(region, q)) {
+            return q.result;
+        }
+        q.state = PENDING;
+        int slot = publish(region, q);
+        // unless a combiner that still held q from before got to it already
+        if (slot < 0 && STATE.compareAndSet(q, PENDING, FREE)) {
+            direct.increment();
+            return (insert ? tree.insert(v) : tree.delete(v));
+        }
+        for (int attempt = 1; q.state != DONE; attempt++) {
+            if (!tryCombine(region, null)) {
+                tree.getPolicy().pause(attempt);
+            }
+        }
+        if (slot >= 0) {
+            region.slots.set(slot, null);
+        }
+        boolean result = q.result;
+        q.state = FREE;
+        return result;
+    }
+
+    /* Puts q into a free slot of region, starting at the thread's own;
+     * returns the slot, or -1 if all are taken. */
+    private int publish(Region region, Request q) {
+        int home = homeSlot.get();
+        for (int i = 0; i < SLOTS; i++) {
+            int slot = (home + i) & (SLOTS - 1);
+            if (region.slots.get(slot) == null && region.slots.compareAndSet(slot, null, q)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /* Applies own, if given, together with whatever is pending in region,
+     * unless another thread is combining there. */
+    private boolean tryCombine(Region region, Request own) {
+        if (region.combiner.get() != 0 || !region.combiner.compareAndSet(0, 1)) {
+            return false;
+        }
+        try {
+            combine(region, own);
+        } finally {
+            region.combiner.set(0);
+        }
+        return true;
+    }
+
+    private void combine(Region region, Request own) {
+        int n = 0;
+        if (own != null) {
+            region.claimed[n] = own;
+            region.keys[n] = own.key;
+            region.insert[n] = own.insert;
+            n++;
+        }
+        for (int i = 0; i < SLOTS && n < SLOTS; i++) {
+            Request q = region.slots.get(i);
+            if (q != null && q.state == PENDING && STATE.compareAndSet(q, PENDING, CLAIMED)) {
+                region.claimed[n] = q;
+                region.keys[n] = q.key;
+                region.insert[n] = q.insert;
+                n++;
+            }
+        }
+        if (n == 0) {
+            return;
+        }
+        if (n == 1 && own != null) {
+            // nobody to combine with
+            region.claimed[0] = null;
+            own.result = (own.insert ? tree.insert(own.key) : tree.delete(own.key));
+            direct.increment();
+            return;
+        }
+        tree.applyCombined(region.keys, region.insert, region.result, n, region.buffer);
+        for (int i = 0; i < n; i++) {
+            Request q = region.claimed[i];
+            region.claimed[i] = null;
+            q.result = region.result[i];
+            if (q != own) {
+                q.state = DONE;
+            }
+        }
+        combined.add(n);
+        passes.increment();
+    }
+
+    /* Updates applied by a combiner, including its own. */
+    public long getCombinedOperations() {
+        return combined.sum();
+    }
+
+    /* Combiner passes that applied at least one update. */
+    public long getCombinePasses() {
+        return passes.sum();
+    }
+
+    /* Updates that went to the tree by themselves: the region was idle, or
+     * its slots were all taken. */
+    public long getDirectOperations() {
+        return direct.sum();
+    }
+}
@@ -0,0 +1,63 @@
+package binarytree;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/* What a thread does after losing a try-lock race in BinaryTree, before it
+ * retries. attempt counts the failures of the current operation, from 1. */
+public enum ContentionPolicy {
+    /* Retry at once, only hinting the CPU that we are spinning. */
+    SPIN {
+        @Override
+        void pause(int attempt) {
+            Thread.onSpinWait();
+        }
+    },
+    /* Spin for exponentially longer, then sleep for exponentially longer
+     * (randomized) periods, so losers get out of the lock holder's way. */
+    BACKOFF {
+        @Override
+        void pause(int attempt) {
+            if (attempt <= SPIN_ATTEMPTS) {
+                for (int i = 0; i < 1 << attempt; i++) {
+                    Thread.onSpinWait();
+                }
+            } else {
+                long limit = Math.min(MIN_PARK_NANOS << Math.min(attempt - SPIN_ATTEMPTS, 16), MAX_PARK_NANOS);
+                LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(limit / 2, limit + 1));
+            }
+        }
+    },
+    /* Spin a few times, then give the CPU away on every further attempt. */
+    PARK {
+        @Override
+        void pause(int attempt) {
+            if (attempt <= SPIN_ATTEMPTS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(MIN_PARK_NANOS);
+            }
+        }
+    },
+    /* Never spins, for callers on virtual threads or small shared pools:
+     * yield at first, which on a virtual thread frees its carrier for
+     * another one, then park for exponentially longer. The lock holder is
+     * usually just descheduled, so waiting on a CPU only delays it. */
+    COOPERATIVE {
+        @Override
+        void pause(int attempt) {
+            if (attempt <= YIELD_ATTEMPTS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << Math.min(attempt - YIELD_ATTEMPTS, 16), MAX_PARK_NANOS));
+            }
+        }
+    };
+
+    static final int SPIN_ATTEMPTS = 6;
+    static final int YIELD_ATTEMPTS = 2;
+    static final long MIN_PARK_NANOS = 1_000;
+    static final long MAX_PARK_NANOS = 1_000_000;
+
+    abstract void pause(int attempt);
+}
@@ -0,0 +1,143 @@
+package binarytree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/* A BinaryTree whose updates survive a crash. Every insert/delete that
+ * changes the set is applied to the tree and appended to a write-ahead log
+ * (see WriteAheadLog) while the key's stripe lock is held, so the log has
+ * the updates of each key in the order the tree saw them; the update then
+ * waits for its record to be durable as the SyncPolicy says, outside the
+ * lock, which lets concurrent writers share fsyncs. An update that changes
+ * nothing still waits until everything logged before it is durable, so its
+ * answer never rests on an update a crash could lose. contains() is the
+ * tree's and may see updates that are not durable yet.
+ *
+ * The directory holds the log segments and, after checkpoint(), a
+ * Checkpoint of the keys. open() loads the checkpoint and replays the
+ * segments over it: replaying insert/delete in log order is idempotent, so
+ * segments that the checkpoint already covers do no harm. */
+public class DurableBinaryTree implements IntSet, AutoCloseable {
+    private static final int STRIPES = 1024;
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final BinaryTree tree;
+    private final Path dir;
+    private final WriteAheadLog log;
+    private final Object[] stripes = new Object[STRIPES];
+    private final Object checkpointLock = new Object();
+    private final ScheduledExecutorService flusher;
+
+    private DurableBinaryTree(BinaryTree tree, Path dir, WriteAheadLog log, ScheduledExecutorService flusher) {
+        this.tree = tree;
+        this.dir = dir;
+        this.log = log;
+        this.flusher = flusher;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /* PERIODIC syncs every 10 ms. */
+    public static DurableBinaryTree open(Path dir, SyncPolicy policy) throws IOException {
+        return open(dir, policy, 10, TimeUnit.MILLISECONDS);
+    }
+
+    public static DurableBinaryTree open(Path dir, SyncPolicy policy, long period, TimeUnit unit) throws IOException {
+        Path checkpoint = dir.resolve(CHECKPOINT);
+        BinaryTree tree = (Files.exists(checkpoint) ? Checkpoint.load(checkpoint) : new BinaryTree());
+        WriteAheadLog log = WriteAheadLog.open(dir, policy, (op, key) -> {
+            if (op == WriteAheadLog.INSERT) {
+                tree.insert(key);
+            } else {
+                tree.delete(key);
+            }
+        });
+        ScheduledExecutorService flusher = null;
+        if (policy == SyncPolicy.PERIODIC) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "binarytree-wal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(log::flushQuietly, period, period, unit);
+        }
+        return new DurableBinaryTree(tree, dir, log, flusher);
+    }
+
+    private Object stripe(int v) {
+        return stripes[BinaryTree.spread(v) & (STRIPES - 1)];
+    }
+
+    @Override
+    public boolean contains(int v) {
+        return tree.contains(v);
+    }
+
+    /* Throws UncheckedIOException if the log cannot be written; the tree may
+     * then hold the update although it is not durable. */
+    @Override
+    public boolean insert(int v) {
+        return update(WriteAheadLog.INSERT, v);
+    }
+
+    @Override
+    public boolean delete(int v) {
+        return update(WriteAheadLog.DELETE, v);
+    }
+
+    private boolean update(int op, int v) {
+        try {
+            boolean changed;
+            long position;
+            synchronized (stripe(v)) {
+                changed = (op == WriteAheadLog.INSERT ? tree.insert(v) : tree.delete(v));
+                position = (changed ? log.append(op, v) : log.position());
+            }
+            log.sync(position);
+            return changed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long size() {
+        return tree.size();
+    }
+
+    /* Writes a checkpoint and drops the log segments it makes redundant.
+     * Writers are only held up while the log moves to a new segment.
+     * Checkpoints run one at a time: otherwise one that rotated earlier could
+     * write its file last, over a newer one whose segments are gone. */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            List<Path> covered = log.rotate();
+            // everything in the old segments is in the tree by now
+            Checkpoint.write(tree, dir.resolve(CHECKPOINT));
+            for (Path segment : covered) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            // no shutdownNow(): interrupting a thread in force() closes the channel
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.close();
+    }
+}
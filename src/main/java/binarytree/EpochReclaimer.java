@@ -0,0 +1,267 @@
+package binarytree;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/* Epoch-based reclamation of int-addressed nodes (OffHeapBinaryTree) or of
+ * node objects (BinaryTree with recycling). Every operation runs between
+ * enter() and exit(); a node it unlinks is retire()d with the global epoch
+ * of that moment. The epoch only moves on once every thread inside an
+ * operation has entered in the current one, so after two moves nobody can
+ * still hold a node retired before them, and it is handed to the free
+ * callback. Retired nodes wait in per-thread lists, so retire() does not
+ * contend. The list of a thread that has died is freed by the threads that
+ * register or reclaim after it, and the thread then leaves the
+ * participants, so short-lived threads leave nothing behind.
+ *
+ * enter/exit nest, so an operation may call another one. A reader that is
+ * not tied to a thread (an iterator) pins an epoch of its own with pin(). */
+final class EpochReclaimer {
+    private static final long IDLE = -1;
+    /* Retired nodes a thread collects before it tries to advance the epoch. */
+    private static final int RECLAIM_BATCH = 128;
+    /* Retired objects a thread keeps at most; past that, while the epoch is
+     * held up, further ones are left to the GC instead. */
+    private static final int MAX_RETIRED_OBJECTS = 1 << 16;
+
+    /* Static: as the value of a thread's ThreadLocal entry it must not lead
+     * back to the reclaimer, or through free to the tree, or a dropped tree
+     * stays reachable from every thread that ever used it. */
+    static final class Participant {
+        /* null for a pin */
+        private final Thread owner;
+        private volatile long epoch = IDLE;
+        private int depth;
+        private int[] retired;
+        private Object[] retiredObjects;
+        private long[] retiredAt = new long[RECLAIM_BATCH];
+        private int count;
+
+        Participant(Thread owner, boolean objects) {
+            this.owner = owner;
+            if (objects) {
+                retiredObjects = new Object[RECLAIM_BATCH];
+            } else {
+                retired = new int[RECLAIM_BATCH];
+            }
+        }
+
+        /* Its thread has terminated, and with it every write to the list. */
+        boolean orphaned() {
+            return owner != null && !owner.isAlive();
+        }
+    }
+
+    private final AtomicLong epoch = new AtomicLong();
+    private final boolean objects;
+    private final IntConsumer free;
+    private final Consumer<Object> freeObject;
+    private final BooleanSupplier hold;
+    private final ThreadLocal<Participant> participant = ThreadLocal.withInitial(() -> register(Thread.currentThread()));
+    private volatile Participant[] participants = new Participant[0];
+
+    EpochReclaimer(IntConsumer free) {
+        this.objects = false;
+        this.free = free;
+        this.freeObject = null;
+        this.hold = () -> false;
+    }
+
+    /* For objects. Nothing is freed while hold says so. */
+    @SuppressWarnings("unchecked")
+    <T> EpochReclaimer(Consumer<T> free, BooleanSupplier hold) {
+        this.objects = true;
+        this.free = null;
+        this.freeObject = (Consumer<Object>) free;
+        this.hold = hold;
+    }
+
+    /* A thread that registers frees what orphans it can, so threads too
+     * short-lived to ever reclaim do not pile up. */
+    private synchronized Participant register(Thread owner) {
+        if (owner != null && !hold.getAsBoolean() && advance()) {
+            sweepOrphans(epoch.get() - 2);
+        }
+        Participant p = new Participant(owner, objects);
+        Participant[] registered = Arrays.copyOf(participants, participants.length + 1);
+        registered[registered.length - 1] = p;
+        participants = registered;
+        return p;
+    }
+
+    /* Frees the nodes of orphaned participants retired up to safe, and
+     * drops the orphans that have none left. */
+    private synchronized void sweepOrphans(long safe) {
+        Participant[] registered = participants;
+        Participant[] remaining = new Participant[registered.length];
+        int kept = 0;
+        for (Participant other : registered) {
+            if (other.orphaned()) {
+                sweep(other, safe);
+                if (other.count == 0) {
+                    continue;
+                }
+            }
+            remaining[kept++] = other;
+        }
+        if (kept < registered.length) {
+            participants = Arrays.copyOf(remaining, kept);
+        }
+    }
+
+    private synchronized void unregister(Participant p) {
+        Participant[] registered = participants;
+        for (int i = 0; i < registered.length; i++) {
+            if (registered[i] == p) {
+                Participant[] remaining = new Participant[registered.length - 1];
+                System.arraycopy(registered, 0, remaining, 0, i);
+                System.arraycopy(registered, i + 1, remaining, i, remaining.length - i);
+                participants = remaining;
+                return;
+            }
+        }
+    }
+
+    Participant enter() {
+        Participant p = participant.get();
+        if (p.depth++ == 0) {
+            p.epoch = epoch.get();
+        }
+        return p;
+    }
+
+    void exit(Participant p) {
+        if (--p.depth == 0) {
+            p.epoch = IDLE;
+        }
+    }
+
+    /* A participant of its own, already in the current epoch, for a reader
+     * that may move between threads. It must not retire anything. */
+    Participant pin() {
+        Participant p = register(null);
+        p.epoch = epoch.get();
+        return p;
+    }
+
+    void unpin(Participant p) {
+        p.epoch = IDLE;
+        unregister(p);
+    }
+
+    /* Nodes retired and not freed yet, over all threads; exact only while
+     * none of them retires or reclaims. */
+    long retiredCount() {
+        long count = 0;
+        for (Participant p : participants) {
+            count += p.count;
+        }
+        return count;
+    }
+
+    /* node has been unlinked by p, which is still inside its operation. */
+    void retire(Participant p, int node) {
+        makeRoom(p);
+        p.retired[p.count] = node;
+        p.retiredAt[p.count] = epoch.get();
+        p.count++;
+    }
+
+    /* retire() for the calling thread, which is inside an operation. */
+    void retire(Object node) {
+        retire(participant.get(), node);
+    }
+
+    void retire(Participant p, Object node) {
+        if (!makeRoom(p)) {
+            return;
+        }
+        p.retiredObjects[p.count] = node;
+        p.retiredAt[p.count] = epoch.get();
+        p.count++;
+    }
+
+    /* Returns false if p's list is full and may not grow. */
+    private boolean makeRoom(Participant p) {
+        if (p.count < p.retiredAt.length) {
+            return true;
+        }
+        reclaim(p);
+        if (p.count > p.retiredAt.length / 2) {
+            if (objects && p.count >= MAX_RETIRED_OBJECTS) {
+                return false;
+            }
+            int length = 2 * p.retiredAt.length;
+            p.retiredAt = Arrays.copyOf(p.retiredAt, length);
+            if (objects) {
+                p.retiredObjects = Arrays.copyOf(p.retiredObjects, length);
+            } else {
+                p.retired = Arrays.copyOf(p.retired, length);
+            }
+        }
+        return true;
+    }
+
+    private void reclaim(Participant p) {
+        if (hold.getAsBoolean()) {
+            return;
+        }
+        boolean orphans = advance();
+        long safe = epoch.get() - 2;
+        sweep(p, safe);
+        if (orphans) {
+            sweepOrphans(safe);
+        }
+    }
+
+    /* Moves the epoch on if every thread inside an operation has entered
+     * in the current one; returns whether there are orphans to sweep. */
+    private boolean advance() {
+        long current = epoch.get();
+        boolean quiescent = true;
+        boolean orphans = false;
+        for (Participant other : participants) {
+            long e = other.epoch;
+            if (other.orphaned()) {
+                // died inside an operation or not, it reads nothing anymore
+                orphans = true;
+            } else if (e != IDLE && e != current) {
+                quiescent = false;
+            }
+        }
+        if (quiescent) {
+            epoch.compareAndSet(current, current + 1);
+        }
+        return orphans;
+    }
+
+    /* Frees the nodes in p's list retired up to safe. */
+    private void sweep(Participant p, long safe) {
+        int kept = 0;
+        for (int i = 0; i < p.count; i++) {
+            if (p.retiredAt[i] <= safe) {
+                if (objects) {
+                    freeObject.accept(p.retiredObjects[i]);
+                    p.retiredObjects[i] = null;
+                } else {
+                    free.accept(p.retired[i]);
+                }
+            } else {
+                if (objects) {
+                    p.retiredObjects[kept] = p.retiredObjects[i];
+                } else {
+                    p.retired[kept] = p.retired[i];
+                }
+                p.retiredAt[kept] = p.retiredAt[i];
+                kept++;
+            }
+        }
+        for (int i = kept; objects && i < p.count; i++) {
+            p.retiredObjects[i] = null;
+        }
+        p.count = kept;
+    }
+}
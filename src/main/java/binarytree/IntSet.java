@@ -0,0 +1,15 @@
+package binarytree;
+
+/* The point operations shared by the int-keyed trees (BinaryTree and
+ * OffHeapBinaryTree), for code that should work with either backend. */
+public interface IntSet {
+    boolean contains(int v);
+
+    /* Returns whether v was added. */
+    boolean insert(int v);
+
+    /* Returns whether v was in the set. */
+    boolean delete(int v);
+
+    long size();
+}
@@ -0,0 +1,8 @@
+package binarytree;
+
+/* How keys are laid out in a BinaryTree. The tree never rebalances, so with
+ * NATURAL order a monotonic key sequence (timestamps, sequence ids) turns it
+ * into a chain. HASHED stores every key under a fixed bijective scramble of
+ * it, which gives logarithmic expected depth whatever the insertion order,
+ * at the price of the key order: ordered operations are not available. */
+public enum KeyOrder { NATURAL, HASHED }
@@ -0,0 +1,222 @@
+package binarytree;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+/* BinaryTree specialized for long keys: only the search is its own, the
+ * locking protocol is AbstractBinaryTree's. Keys are never boxed. It has
+ * the point operations, the cardinality statistics and ordered iteration;
+ * batches, bulk load, compaction and snapshots are only in BinaryTree. */
+public class LongBinaryTree extends AbstractBinaryTree<LongBinaryTree.Node> {
+    public static final class Node extends TreeNode<Node> {
+        public volatile long value;
+
+        public Node(long value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean sameKey(Node other) {
+            return value == other.value;
+        }
+    }
+
+    /* The sentinel above every key, see BinaryTree.root. */
+    private final Node root = new Node(0);
+
+    /* See BinaryTree.Window. */
+    private static final ThreadLocal<Window<Node>> WINDOW = ThreadLocal.withInitial(Window::new);
+
+    public LongBinaryTree() {
+        this(ContentionPolicy.SPIN);
+    }
+
+    public LongBinaryTree(ContentionPolicy policy) {
+        super(policy);
+    }
+
+    private boolean isLeft(long v, Node parent) {
+        return (parent == root || v < parent.value);
+    }
+
+    @Override
+    boolean isLeft(Node node, Node parent) {
+        return isLeft(node.value, parent);
+    }
+
+    private void traversal(long v, Window<Node> window) {
+        Node gprev = null;
+        Node prev = root;
+        Node curr = root.left;
+        int depth = 1;
+        while (curr != null) {
+            long value = curr.value;
+            if (value == v) {
+                break;
+            }
+            gprev = prev;
+            prev = curr;
+            depth++;
+            curr = (v < value) ? curr.left : curr.right;
+        }
+        window.gprev = gprev;
+        window.prev = prev;
+        window.curr = curr;
+        window.depth = depth;
+    }
+
+    public boolean contains(long v) {
+        Node curr = root.left;
+        while (curr != null) {
+            long value = curr.value;
+            if (value == v) {
+                return curr.isMember();
+            }
+            curr = (v < value) ? curr.left : curr.right;
+        }
+        return false;
+    }
+
+    public boolean insert(long v) {
+        Window<Node> window = WINDOW.get();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 0) {
+                    policy.pause(attempt);
+                }
+                traversal(v, window);
+                Node node = (window.curr == null ? new Node(v) : null);
+                int outcome = insertAt(window, isLeft(v, window.prev), node);
+                if (outcome != RETRY) {
+                    return outcome != PRESENT;
+                }
+            }
+        } finally {
+            window.clear();
+        }
+    }
+
+    /* Returns whether v was in the tree. */
+    public boolean delete(long v) {
+        Window<Node> window = WINDOW.get();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 0) {
+                    policy.pause(attempt);
+                }
+                traversal(v, window);
+                int outcome = deleteAt(window);
+                if (outcome != RETRY) {
+                    return outcome == REMOVED;
+                }
+            }
+        } finally {
+            window.clear();
+        }
+    }
+
+    /* Number of keys in the tree; see BinaryTree.size(). */
+    public long size() {
+        return dataNodes.sum();
+    }
+
+    public long getNodeCount() {
+        return linkedNodes.sum();
+    }
+
+    public long getRoutingNodeCount() {
+        return routingNodes.sum();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /* Keys in ascending order, weakly consistent as BinaryTree.iterator(). */
+    public PrimitiveIterator.OfLong iterator() {
+        return new TreeIterator();
+    }
+
+    public void forEach(LongConsumer action) {
+        iterator().forEachRemaining(action);
+    }
+
+    private final class TreeIterator implements PrimitiveIterator.OfLong {
+        private Node[] stack = new Node[64];
+        private int top;
+        private boolean started;
+        private long last;
+        private boolean ready;
+
+        TreeIterator() {
+            descend(root.left);
+        }
+
+        private void descend(Node node) {
+            while (node != null) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * top);
+                }
+                stack[top++] = node;
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!ready && top > 0) {
+                Node node = stack[--top];
+                long value = node.value;
+                descend(node.right);
+                if ((!started || value > last) && node.isMember()) {
+                    started = true;
+                    last = value;
+                    ready = true;
+                }
+            }
+            return ready;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            return last;
+        }
+    }
+
+    /* Number of levels below the root sentinel; walks the whole tree. */
+    public int height() {
+        Node node = root.left;
+        int height = 0;
+        Node[] nodes = new Node[64];
+        int[] depths = new int[64];
+        int top = 0;
+        if (node != null) {
+            nodes[top] = node;
+            depths[top++] = 1;
+        }
+        while (top > 0) {
+            Node next = nodes[--top];
+            int depth = depths[top];
+            height = Math.max(height, depth);
+            if (top + 2 > nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+                depths = Arrays.copyOf(depths, 2 * depths.length);
+            }
+            if (next.left != null) {
+                nodes[top] = next.left;
+                depths[top++] = depth + 1;
+            }
+            if (next.right != null) {
+                nodes[top] = next.right;
+                depths[top++] = depth + 1;
+            }
+        }
+        return height;
+    }
+}
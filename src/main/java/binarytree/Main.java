@@ -0,0 +1,29 @@
+package binarytree;
+
+import java.io.IOException;
+import java.util.List;
+
+/* Throughput sweep from the command line, see Workload for the options:
+ * java -cp target/classes binarytree.Main --distribution=zipfian --keyspace=shared --threads=1,4 --format=json
+ * Without options it runs the workload this class always ran, now up to
+ * 64 threads. Results go to stdout (or --output), progress to stderr. */
+public class Main {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && (args[0].equals("--help") || args[0].equals("-h"))) {
+            System.out.println(Workload.usage());
+            return;
+        }
+        Workload workload;
+        try {
+            workload = Workload.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Workload.usage());
+            System.exit(2);
+            return;
+        }
+        WorkloadRunner runner = new WorkloadRunner(workload, System.err);
+        List<WorkloadRunner.Result> results = runner.run();
+        runner.write(results, System.out);
+    }
+}
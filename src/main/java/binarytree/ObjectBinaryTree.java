@@ -0,0 +1,230 @@
+package binarytree;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/* LongBinaryTree for object keys, ordered by a Comparator (or their natural
+ * order). Node.value holds the key itself; keys must not be null. */
+public class ObjectBinaryTree<K> extends AbstractBinaryTree<ObjectBinaryTree<K>.Node> implements Iterable<K> {
+    public class Node extends TreeNode<Node> {
+        public volatile K value;
+
+        public Node(K value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean sameKey(Node other) {
+            return comparator.compare(value, other.value) == 0;
+        }
+    }
+
+    /* The sentinel above every key, see BinaryTree.root. */
+    private final Node root = new Node(null);
+
+    private final Comparator<? super K> comparator;
+    /* Node depends on K, so unlike in BinaryTree the windows are per tree. */
+    private final ThreadLocal<Window<Node>> windows = ThreadLocal.withInitial(Window::new);
+
+    /* Keys in their natural order; they must be Comparable. */
+    @SuppressWarnings("unchecked")
+    public ObjectBinaryTree() {
+        this((Comparator<? super K>) Comparator.naturalOrder());
+    }
+
+    public ObjectBinaryTree(Comparator<? super K> comparator) {
+        this(comparator, ContentionPolicy.SPIN);
+    }
+
+    public ObjectBinaryTree(Comparator<? super K> comparator, ContentionPolicy policy) {
+        super(policy);
+        this.comparator = Objects.requireNonNull(comparator);
+    }
+
+    private boolean isLeft(K v, Node parent) {
+        return (parent == root || comparator.compare(v, parent.value) < 0);
+    }
+
+    @Override
+    boolean isLeft(Node node, Node parent) {
+        return isLeft(node.value, parent);
+    }
+
+    private void traversal(K v, Window<Node> window) {
+        Node gprev = null;
+        Node prev = root;
+        Node curr = root.left;
+        int depth = 1;
+        while (curr != null) {
+            int c = comparator.compare(v, curr.value);
+            if (c == 0) {
+                break;
+            }
+            gprev = prev;
+            prev = curr;
+            depth++;
+            curr = (c < 0) ? curr.left : curr.right;
+        }
+        window.gprev = gprev;
+        window.prev = prev;
+        window.curr = curr;
+        window.depth = depth;
+    }
+
+    public boolean contains(K v) {
+        Objects.requireNonNull(v);
+        Node curr = root.left;
+        while (curr != null) {
+            int c = comparator.compare(v, curr.value);
+            if (c == 0) {
+                return curr.isMember();
+            }
+            curr = (c < 0) ? curr.left : curr.right;
+        }
+        return false;
+    }
+
+    public boolean insert(K v) {
+        Objects.requireNonNull(v);
+        Window<Node> window = windows.get();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 0) {
+                    policy.pause(attempt);
+                }
+                traversal(v, window);
+                Node node = (window.curr == null ? new Node(v) : null);
+                int outcome = insertAt(window, isLeft(v, window.prev), node);
+                if (outcome != RETRY) {
+                    return outcome != PRESENT;
+                }
+            }
+        } finally {
+            window.clear();
+        }
+    }
+
+    /* Returns whether v was in the tree. */
+    public boolean delete(K v) {
+        Objects.requireNonNull(v);
+        Window<Node> window = windows.get();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 0) {
+                    policy.pause(attempt);
+                }
+                traversal(v, window);
+                int outcome = deleteAt(window);
+                if (outcome != RETRY) {
+                    return outcome == REMOVED;
+                }
+            }
+        } finally {
+            window.clear();
+        }
+    }
+
+    /* Number of keys in the tree; see BinaryTree.size(). */
+    public long size() {
+        return dataNodes.sum();
+    }
+
+    public long getNodeCount() {
+        return linkedNodes.sum();
+    }
+
+    public long getRoutingNodeCount() {
+        return routingNodes.sum();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /* Keys in ascending order, weakly consistent as BinaryTree.iterator(). */
+    @Override
+    public Iterator<K> iterator() {
+        return new TreeIterator();
+    }
+
+    private final class TreeIterator implements Iterator<K> {
+        private Object[] stack = new Object[64];
+        private int top;
+        private K last;
+        private boolean ready;
+
+        TreeIterator() {
+            descend(root.left);
+        }
+
+        private void descend(Node node) {
+            while (node != null) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * top);
+                }
+                stack[top++] = node;
+                node = node.left;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            while (!ready && top > 0) {
+                Node node = (Node) stack[--top];
+                K value = node.value;
+                descend(node.right);
+                if ((last == null || comparator.compare(value, last) > 0)
+                        && node.isMember()) {
+                    last = value;
+                    ready = true;
+                }
+            }
+            return ready;
+        }
+
+        @Override
+        public K next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            return last;
+        }
+    }
+
+    /* Number of levels below the root sentinel; walks the whole tree. */
+    @SuppressWarnings("unchecked")
+    public int height() {
+        Node node = root.left;
+        int height = 0;
+        Object[] nodes = new Object[64];
+        int[] depths = new int[64];
+        int top = 0;
+        if (node != null) {
+            nodes[top] = node;
+            depths[top++] = 1;
+        }
+        while (top > 0) {
+            Node next = (Node) nodes[--top];
+            int depth = depths[top];
+            height = Math.max(height, depth);
+            if (top + 2 > nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+                depths = Arrays.copyOf(depths, 2 * depths.length);
+            }
+            if (next.left != null) {
+                nodes[top] = next.left;
+                depths[top++] = depth + 1;
+            }
+            if (next.right != null) {
+                nodes[top] = next.right;
+                depths[top++] = depth + 1;
+            }
+        }
+        return height;
+    }
+}
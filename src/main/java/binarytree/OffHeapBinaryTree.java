@@ -0,0 +1,568 @@
+package binarytree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/* BinaryTree's algorithm with the nodes off the heap, for trees too large
+ * for the collector to trace. A node is four ints in a direct ByteBuffer,
+ * addressed by its index:
+ *
+ *   key | word | left | right
+ *
+ * word holds the four lock bits of BinaryTree.Node.locks plus the state
+ * (ROUTING) and deleted bits, so a state lock is taken and its state checked
+ * in one CAS. Child links are indices, NIL (0) for none. Buffers are added
+ * in chunks of 2^20 nodes as the tree grows, up to 2^31 nodes.
+ *
+ * Unlinked nodes go to an EpochReclaimer and, once no operation can still
+ * be looking at them, onto a free-list that insert takes nodes from before
+ * growing; those left behind by a thread that has exited are taken over by
+ * the next thread that uses the tree. The heap holds only the chunk table
+ * and some counters. close() lets go of the chunks when the tree is done
+ * with, rather than leaving them until the tree itself is collected. */
+public class OffHeapBinaryTree implements IntSet, AutoCloseable {
+    private static final int STATE_READ = 1;
+    private static final int STATE_WRITE = 1 << 1;
+    private static final int LEFT = 1 << 2;
+    private static final int RIGHT = 1 << 3;
+    private static final int ROUTING = 1 << 4;
+    private static final int DELETED = 1 << 5;
+
+    private static final int KEY = 0;
+    private static final int WORD = 4;
+    private static final int LEFT_CHILD = 8;
+    private static final int RIGHT_CHILD = 12;
+    private static final int NODE_SHIFT = 4;
+
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_SHIFT);
+
+    private static final int NIL = 0;
+    private static final int ROOT = 1;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle CHUNKS = MethodHandles.arrayElementVarHandle(ByteBuffer[].class);
+
+    /* Filled in under the lock and read with acquire by allocate. Other
+     * readers only reach a chunk through a link published after one of its
+     * nodes was allocated, so they read the table plainly. */
+    private final ByteBuffer[] chunks = new ByteBuffer[MAX_CHUNKS];
+    private final AtomicInteger allocated = new AtomicInteger(ROOT + 1);
+    /* Top of the free-list (linked through left), tagged with a change
+     * count in the upper half against ABA. */
+    private final AtomicLong freeList = new AtomicLong();
+    private final EpochReclaimer epochs = new EpochReclaimer(this::free);
+
+    private final ContentionPolicy policy;
+    private final LongAdder dataNodes = new LongAdder();
+    private final LongAdder linkedNodes = new LongAdder();
+    private final LongAdder routingNodes = new LongAdder();
+    private final LongAdder freeNodes = new LongAdder();
+
+    public OffHeapBinaryTree() {
+        this(ContentionPolicy.SPIN);
+    }
+
+    public OffHeapBinaryTree(ContentionPolicy policy) {
+        this.policy = policy;
+        ensureChunk(0);
+    }
+
+    /* Node access */
+
+    private ByteBuffer chunk(int node) {
+        return chunks[node >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int node, int field) {
+        return ((node & CHUNK_MASK) << NODE_SHIFT) + field;
+    }
+
+    private int key(int node) {
+        return (int) INT.get(chunk(node), offset(node, KEY));
+    }
+
+    private int word(int node) {
+        return (int) INT.getVolatile(chunk(node), offset(node, WORD));
+    }
+
+    private int child(int node, boolean left) {
+        return (int) INT.getVolatile(chunk(node), offset(node, left ? LEFT_CHILD : RIGHT_CHILD));
+    }
+
+    private void setChild(int node, boolean left, int child) {
+        INT.setVolatile(chunk(node), offset(node, left ? LEFT_CHILD : RIGHT_CHILD), child);
+    }
+
+    private void setBits(int node, int bits) {
+        INT.getAndBitwiseOr(chunk(node), offset(node, WORD), bits);
+    }
+
+    private void clearBits(int node, int bits) {
+        INT.getAndBitwiseAnd(chunk(node), offset(node, WORD), ~bits);
+    }
+
+    private int numberOfChildren(int node) {
+        return (child(node, true) != NIL ? 1 : 0) + (child(node, false) != NIL ? 1 : 0);
+    }
+
+    private boolean isLeft(int v, int parent) {
+        return (parent == ROOT || v < key(parent));
+    }
+
+    /* Locks, as in BinaryTree.Node */
+
+    private boolean tryLock(int node, int bit, int excluding) {
+        ByteBuffer chunk = chunk(node);
+        int offset = offset(node, WORD);
+        int blocked = bit | excluding;
+        while (true) {
+            int word = (int) INT.getVolatile(chunk, offset);
+            if ((word & blocked) != 0) {
+                return false;
+            }
+            if (INT.compareAndSet(chunk, offset, word, word | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /* Takes the state lock bit if the node is not deleted, is ROUTING or
+     * DATA as asked and the other state lock is free. */
+    private boolean tryLockState(int node, int bit, int other, boolean routing) {
+        ByteBuffer chunk = chunk(node);
+        int offset = offset(node, WORD);
+        int expected = (routing ? ROUTING : 0);
+        while (true) {
+            int word = (int) INT.getVolatile(chunk, offset);
+            if ((word & (bit | other | ROUTING | DELETED)) != expected) {
+                return false;
+            }
+            if (INT.compareAndSet(chunk, offset, word, word | bit)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean tryWriteLockState(int node, boolean routing) {
+        return tryLockState(node, STATE_WRITE, STATE_READ, routing);
+    }
+
+    private boolean tryReadLockState(int node, boolean routing) {
+        return tryLockState(node, STATE_READ, STATE_WRITE, routing);
+    }
+
+    private void readLock(int node) {
+        for (int attempt = 1; !tryLock(node, STATE_READ, STATE_WRITE); attempt++) {
+            policy.pause(attempt);
+        }
+    }
+
+    private void unlock(int node, int bit) {
+        clearBits(node, bit);
+    }
+
+    private boolean tryWriteLockChildRef(int node, boolean left, int expected) {
+        int bit = (left ? LEFT : RIGHT);
+        if (child(node, left) != expected || (word(node) & bit) != 0) {
+            return false;
+        }
+        if (tryLock(node, bit, 0)) {
+            if (child(node, left) != expected) {
+                unlock(node, bit);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean tryWriteLockChildKey(int node, boolean left, int key) {
+        int bit = (left ? LEFT : RIGHT);
+        int child = child(node, left);
+        if (child == NIL || key(child) != key || (word(node) & bit) != 0) {
+            return false;
+        }
+        if (tryLock(node, bit, 0)) {
+            child = child(node, left);
+            if (child == NIL || key(child) != key) {
+                unlock(node, bit);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean tryWriteLockWithChild(int parent, int child, boolean left) {
+        boolean locked = tryWriteLockChildRef(parent, left, child);
+        if ((word(parent) & DELETED) != 0) {
+            if (locked) {
+                unlockChild(parent, left);
+            }
+            return false;
+        }
+        return locked;
+    }
+
+    private void unlockChild(int node, boolean left) {
+        unlock(node, left ? LEFT : RIGHT);
+    }
+
+    /* Allocation */
+
+    private void ensureChunk(int index) {
+        if (CHUNKS.getAcquire(chunks, index) == null) {
+            synchronized (chunks) {
+                if (chunks[index] == null) {
+                    // aligned, so that every int can be accessed atomically
+                    ByteBuffer chunk = ByteBuffer.allocateDirect((1 << (CHUNK_SHIFT + NODE_SHIFT)) + 8)
+                            .alignedSlice(8);
+                    CHUNKS.setRelease(chunks, index, chunk);
+                }
+            }
+        }
+    }
+
+    private int allocate(int key) {
+        int node = popFree();
+        if (node == NIL) {
+            node = allocated.getAndIncrement();
+            if (node < 0) {
+                allocated.decrementAndGet();
+                throw new IllegalStateException("OffHeapBinaryTree is full");
+            }
+            ensureChunk(node >>> CHUNK_SHIFT);
+        } else {
+            freeNodes.decrement();
+        }
+        ByteBuffer chunk = chunk(node);
+        INT.set(chunk, offset(node, KEY), key);
+        INT.set(chunk, offset(node, WORD), 0);
+        INT.set(chunk, offset(node, LEFT_CHILD), NIL);
+        INT.set(chunk, offset(node, RIGHT_CHILD), NIL);
+        return node;
+    }
+
+    private int popFree() {
+        while (true) {
+            long top = freeList.get();
+            int node = (int) top;
+            if (node == NIL) {
+                return NIL;
+            }
+            long next = ((top >>> 32) + 1) << 32 | (child(node, true) & 0xffffffffL);
+            if (freeList.compareAndSet(top, next)) {
+                return node;
+            }
+        }
+    }
+
+    private void free(int node) {
+        while (true) {
+            long top = freeList.get();
+            setChild(node, true, (int) top);
+            if (freeList.compareAndSet(top, ((top >>> 32) + 1) << 32 | node)) {
+                freeNodes.increment();
+                return;
+            }
+        }
+    }
+
+    /* Operations */
+
+    private static final class Window {
+        int gprev;
+        int prev;
+        int curr;
+    }
+
+    private static final ThreadLocal<Window> WINDOW = ThreadLocal.withInitial(Window::new);
+
+    private void traversal(int v, Window window) {
+        int gprev = NIL;
+        int prev = ROOT;
+        int curr = child(ROOT, true);
+        while (curr != NIL) {
+            int key = key(curr);
+            if (key == v) {
+                break;
+            }
+            gprev = prev;
+            prev = curr;
+            curr = child(curr, v < key);
+        }
+        window.gprev = gprev;
+        window.prev = prev;
+        window.curr = curr;
+    }
+
+    @Override
+    public boolean contains(int v) {
+        EpochReclaimer.Participant p = epochs.enter();
+        try {
+            int curr = child(ROOT, true);
+            while (curr != NIL) {
+                int key = key(curr);
+                if (key == v) {
+                    return (word(curr) & (ROUTING | DELETED)) == 0;
+                }
+                curr = child(curr, v < key);
+            }
+            return false;
+        } finally {
+            epochs.exit(p);
+        }
+    }
+
+    @Override
+    public boolean insert(int v) {
+        EpochReclaimer.Participant p = epochs.enter();
+        try {
+            return insert(v, WINDOW.get());
+        } finally {
+            epochs.exit(p);
+        }
+    }
+
+    private boolean insert(int v, Window window) {
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                policy.pause(attempt);
+            }
+            traversal(v, window);
+            int curr = window.curr;
+            int prev = window.prev;
+            if (curr != NIL) {
+                int word = word(curr);
+                if ((word & DELETED) != 0) {
+                    continue;
+                }
+                if ((word & ROUTING) == 0) {
+                    return false;
+                }
+                if (tryWriteLockState(curr, true)) {
+                    clearBits(curr, ROUTING);
+                    unlock(curr, STATE_WRITE);
+                    routingNodes.decrement();
+                    dataNodes.increment();
+                    return true;
+                }
+            } else {
+                boolean left = isLeft(v, prev);
+                if (tryWriteLockChildRef(prev, left, NIL)) {
+                    readLock(prev);
+                    boolean deleted = (word(prev) & DELETED) != 0;
+                    if (!deleted) {
+                        setChild(prev, left, allocate(v));
+                    }
+                    unlock(prev, STATE_READ);
+                    unlockChild(prev, left);
+                    if (!deleted) {
+                        dataNodes.increment();
+                        linkedNodes.increment();
+                        return true;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(int v) {
+        EpochReclaimer.Participant p = epochs.enter();
+        try {
+            return delete(v, WINDOW.get(), p);
+        } finally {
+            epochs.exit(p);
+        }
+    }
+
+    private boolean delete(int v, Window window, EpochReclaimer.Participant p) {
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                policy.pause(attempt);
+            }
+            traversal(v, window);
+            int curr = window.curr;
+            int prev = window.prev;
+            int gprev = window.gprev;
+            if (curr == NIL || (word(curr) & (ROUTING | DELETED)) != 0) {
+                return false;
+            }
+            int num = numberOfChildren(curr);
+            if (num == 2) {
+                if (!tryWriteLockState(curr, false)) {
+                    continue;
+                }
+                if (numberOfChildren(curr) != 2) {
+                    unlock(curr, STATE_WRITE);
+                    continue;
+                }
+                setBits(curr, ROUTING);
+                unlock(curr, STATE_WRITE);
+                routingNodes.increment();
+                dataNodes.decrement();
+                return true;
+            } else if (num == 1) {
+                if (!unlinkWithOneChild(prev, curr, p)) {
+                    continue;
+                }
+                dataNodes.decrement();
+                return true;
+            }
+            boolean isCurrLeft = isLeft(key(curr), prev);
+            if (!tryWriteLockChildKey(prev, isCurrLeft, v)) {
+                continue;
+            }
+            curr = child(prev, isCurrLeft);
+            if (!tryWriteLockState(curr, false)) {
+                unlockChild(prev, isCurrLeft);
+                continue;
+            }
+            if (numberOfChildren(curr) != 0) {
+                unlock(curr, STATE_WRITE);
+                unlockChild(prev, isCurrLeft);
+                continue;
+            }
+            if ((word(prev) & ROUTING) == 0) {
+                if (!tryReadLockState(prev, false)) {
+                    unlock(curr, STATE_WRITE);
+                    unlockChild(prev, isCurrLeft);
+                    continue;
+                }
+                setBits(curr, DELETED);
+                setChild(prev, isCurrLeft, NIL);
+                unlock(prev, STATE_READ);
+                unlock(curr, STATE_WRITE);
+                unlockChild(prev, isCurrLeft);
+                epochs.retire(p, curr);
+                dataNodes.decrement();
+                linkedNodes.decrement();
+                return true;
+            }
+            // prev is ROUTING: unlink it too, its other child takes its place
+            boolean isChildLeft = !isCurrLeft;
+            int child = child(prev, isChildLeft);
+            boolean isPrevLeft = isLeft(key(prev), gprev);
+            if (!tryWriteLockWithChild(prev, child, isChildLeft)) {
+                unlock(curr, STATE_WRITE);
+                unlockChild(prev, isCurrLeft);
+                continue;
+            }
+            if (!tryWriteLockWithChild(gprev, prev, isPrevLeft)) {
+                unlockChild(prev, isChildLeft);
+                unlock(curr, STATE_WRITE);
+                unlockChild(prev, isCurrLeft);
+                continue;
+            }
+            if (!tryWriteLockState(prev, true)) {
+                unlockChild(gprev, isPrevLeft);
+                unlockChild(prev, isChildLeft);
+                unlock(curr, STATE_WRITE);
+                unlockChild(prev, isCurrLeft);
+                continue;
+            }
+            setBits(prev, DELETED);
+            setBits(curr, DELETED);
+            setChild(gprev, isPrevLeft, child);
+            unlock(prev, STATE_WRITE);
+            unlockChild(gprev, isPrevLeft);
+            unlockChild(prev, isChildLeft);
+            unlock(curr, STATE_WRITE);
+            unlockChild(prev, isCurrLeft);
+            epochs.retire(p, prev);
+            epochs.retire(p, curr);
+            routingNodes.decrement();
+            dataNodes.decrement();
+            linkedNodes.add(-2);
+            return true;
+        }
+    }
+
+    private boolean unlinkWithOneChild(int prev, int curr, EpochReclaimer.Participant p) {
+        boolean isChildLeft = (child(curr, true) != NIL);
+        int child = child(curr, isChildLeft);
+        boolean isCurrLeft = isLeft(key(curr), prev);
+        if (!tryWriteLockWithChild(curr, child, isChildLeft)) {
+            return false;
+        }
+        if (!tryWriteLockWithChild(prev, curr, isCurrLeft)) {
+            unlockChild(curr, isChildLeft);
+            return false;
+        }
+        if (!tryWriteLockState(curr, false)) {
+            unlockChild(prev, isCurrLeft);
+            unlockChild(curr, isChildLeft);
+            return false;
+        }
+        if (numberOfChildren(curr) != 1) {
+            unlock(curr, STATE_WRITE);
+            unlockChild(prev, isCurrLeft);
+            unlockChild(curr, isChildLeft);
+            return false;
+        }
+        setBits(curr, DELETED);
+        setChild(prev, isCurrLeft, child);
+        unlock(curr, STATE_WRITE);
+        unlockChild(prev, isCurrLeft);
+        unlockChild(curr, isChildLeft);
+        epochs.retire(p, curr);
+        linkedNodes.decrement();
+        return true;
+    }
+
+    /* Statistics, as in BinaryTree */
+
+    @Override
+    public long size() {
+        return dataNodes.sum();
+    }
+
+    public long getNodeCount() {
+        return linkedNodes.sum();
+    }
+
+    public long getRoutingNodeCount() {
+        return routingNodes.sum();
+    }
+
+    /* Nodes on the free-list, ready for reuse. */
+    public long getFreeNodeCount() {
+        return freeNodes.sum();
+    }
+
+    /* Unlinked nodes not on the free-list yet, as some operation may still
+     * be looking at them. */
+    public long getRetiredNodeCount() {
+        return epochs.retiredCount();
+    }
+
+    /* Direct memory held by the node chunks. */
+    public long getOffHeapBytes() {
+        int count = 0;
+        synchronized (chunks) {
+            while (count < MAX_CHUNKS && chunks[count] != null) {
+                count++;
+            }
+        }
+        return (long) count << (CHUNK_SHIFT + NODE_SHIFT);
+    }
+
+    /* Drops the node chunks from the table; their direct memory is returned
+     * once the collector gets to the buffers. The tree must not be used
+     * after close(), nor while it is closing. */
+    @Override
+    public void close() {
+        synchronized (chunks) {
+            Arrays.fill(chunks, null);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package binarytree;
+
+import java.util.Arrays;
+
+/* Decides which shard of a ShardedBinaryTree a key lives in. shardOf must
+ * always give the same answer for a key and lie in [0, shards()). An ordered
+ * partitioner never sends a larger key to a lower shard, which lets the
+ * sharded tree iterate and scan ranges shard by shard. */
+public interface Partitioner {
+    int shards();
+
+    int shardOf(int key);
+
+    default boolean isOrdered() {
+        return false;
+    }
+
+    /* Scrambles the key first, so any key pattern spreads evenly; best for
+     * point operations. */
+    static Partitioner hash(int shards) {
+        checkShards(shards);
+        return new Partitioner() {
+            @Override
+            public int shards() {
+                return shards;
+            }
+
+            @Override
+            public int shardOf(int key) {
+                // the high bits of the scrambled key, scaled to [0, shards)
+                return (int) (((BinaryTree.spread(key) & 0xffffffffL) * shards) >>> 32);
+            }
+        };
+    }
+
+    /* Equal slices of the whole int domain. */
+    static Partitioner rangeShards(int shards) {
+        checkShards(shards);
+        return new Partitioner() {
+            @Override
+            public int shards() {
+                return shards;
+            }
+
+            @Override
+            public int shardOf(int key) {
+                return (int) (((key - (long) Integer.MIN_VALUE) * shards) >>> 32);
+            }
+
+            @Override
+            public boolean isOrdered() {
+                return true;
+            }
+        };
+    }
+
+    /* Shard i holds the keys k with bounds[i - 1] <= k < bounds[i], so
+     * there is one shard more than there are bounds: splitAt(5) sends the
+     * keys below 5 to shard 0 and the rest to shard 1. */
+    static Partitioner splitAt(int... bounds) {
+        int[] split = bounds.clone();
+        for (int i = 1; i < split.length; i++) {
+            if (split[i - 1] >= split[i]) {
+                throw new IllegalArgumentException("bounds must be strictly ascending");
+            }
+        }
+        return new Partitioner() {
+            @Override
+            public int shards() {
+                return split.length + 1;
+            }
+
+            @Override
+            public int shardOf(int key) {
+                int i = Arrays.binarySearch(split, key);
+                return (i >= 0 ? i + 1 : -i - 1);
+            }
+
+            @Override
+            public boolean isOrdered() {
+                return true;
+            }
+        };
+    }
+
+    private static void checkShards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive: " + shards);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package binarytree;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/* N independent BinaryTrees behind a Partitioner. Every operation enters
+ * through a single root in a BinaryTree, and on many cores the locks on
+ * its first levels become the contention point; here each key goes
+ * straight to its shard's tree, so updates to different shards share
+ * nothing. size() and the statistics sum over the shards and are as
+ * approximate as BinaryTree's while updates are in flight.
+ *
+ * Ordered traversal needs an ordered partitioner (Partitioner.rangeShards or
+ * Partitioner.splitAt) and KeyOrder.NATURAL shards; it walks the shards in
+ * turn. */
+public class ShardedBinaryTree implements IntSet {
+    private final Partitioner partitioner;
+    private final BinaryTree[] shards;
+    private final boolean ordered;
+
+    public ShardedBinaryTree(Partitioner partitioner) {
+        this(partitioner, ContentionPolicy.SPIN, KeyOrder.NATURAL);
+    }
+
+    public ShardedBinaryTree(Partitioner partitioner, ContentionPolicy policy, KeyOrder order) {
+        this.partitioner = partitioner;
+        this.shards = new BinaryTree[partitioner.shards()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new BinaryTree(policy, order);
+        }
+        this.ordered = (partitioner.isOrdered() && order == KeyOrder.NATURAL);
+    }
+
+    /* Hash-partitioned over one shard per available processor, rounded up
+     * to a power of two. */
+    public static ShardedBinaryTree forProcessors() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new ShardedBinaryTree(Partitioner.hash(Integer.highestOneBit(2 * processors - 1)));
+    }
+
+    private BinaryTree shard(int v) {
+        return shards[partitioner.shardOf(v)];
+    }
+
+    @Override
+    public boolean contains(int v) {
+        return shard(v).contains(v);
+    }
+
+    @Override
+    public boolean insert(int v) {
+        return shard(v).insert(v);
+    }
+
+    @Override
+    public boolean delete(int v) {
+        return shard(v).delete(v);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (BinaryTree shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /* Per-shard statistics. getShard gives the shard's tree for its own
+     * counters (getNodeCount, getMaxDepth, the retry counters, ...); it must
+     * only be updated through this tree, or keys end up in the wrong shard. */
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public BinaryTree getShard(int shard) {
+        return shards[shard];
+    }
+
+    public long[] getShardSizes() {
+        long[] sizes = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            sizes[i] = shards[i].size();
+        }
+        return sizes;
+    }
+
+    public int getMaxDepth() {
+        int depth = 0;
+        for (BinaryTree shard : shards) {
+            depth = Math.max(depth, shard.getMaxDepth());
+        }
+        return depth;
+    }
+
+    /* Removes the ROUTING nodes of every shard; see BinaryTree.compact(). */
+    public int compact() {
+        int removed = 0;
+        for (BinaryTree shard : shards) {
+            removed += shard.compact();
+        }
+        return removed;
+    }
+
+    /* Weakly consistent like BinaryTree's iterators. Ascending key order with
+     * an ordered partitioner; otherwise every key once, in no particular
+     * order. */
+    public PrimitiveIterator.OfInt iterator() {
+        return new ShardIterator(0, shards.length, shard -> shard.iterator());
+    }
+
+    /* Keys k with lo <= k < hi, in ascending order. Only visits the shards
+     * the range overlaps. */
+    public PrimitiveIterator.OfInt range(int lo, int hi) {
+        if (!ordered) {
+            throw new UnsupportedOperationException("range scans need an ordered partitioner and KeyOrder.NATURAL");
+        }
+        if (lo >= hi) {
+            return new ShardIterator(0, 0, null);
+        }
+        return new ShardIterator(partitioner.shardOf(lo), partitioner.shardOf(hi - 1) + 1, shard -> shard.range(lo, hi));
+    }
+
+    /* Keys k with lo <= k <= hi, in ascending order; see
+     * BinaryTree.rangeClosed(). */
+    public PrimitiveIterator.OfInt rangeClosed(int lo, int hi) {
+        if (!ordered) {
+            throw new UnsupportedOperationException("range scans need an ordered partitioner and KeyOrder.NATURAL");
+        }
+        if (lo > hi) {
+            return new ShardIterator(0, 0, null);
+        }
+        return new ShardIterator(partitioner.shardOf(lo), partitioner.shardOf(hi) + 1, shard -> shard.rangeClosed(lo, hi));
+    }
+
+    public void forEach(IntConsumer action) {
+        for (BinaryTree shard : shards) {
+            shard.forEach(action);
+        }
+    }
+
+    private interface ShardScan {
+        PrimitiveIterator.OfInt open(BinaryTree shard);
+    }
+
+    private final class ShardIterator implements PrimitiveIterator.OfInt {
+        private final int end;
+        private final ShardScan scan;
+        private int next;
+        private PrimitiveIterator.OfInt current;
+
+        ShardIterator(int start, int end, ShardScan scan) {
+            this.next = start;
+            this.end = end;
+            this.scan = scan;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (next >= end) {
+                    return false;
+                }
+                current = scan.open(shards[next++]);
+            }
+            return true;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.nextInt();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package binarytree;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/* Immutable, sorted set of the keys a BinaryTree held at one moment
+ * (see BinaryTree.snapshot()). */
+public final class Snapshot {
+    private final int[] keys;
+
+    Snapshot(int[] keys, int size) {
+        int[] sorted = Arrays.copyOf(keys, size);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        this.keys = (distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct));
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public boolean contains(int key) {
+        return Arrays.binarySearch(keys, key) >= 0;
+    }
+
+    public PrimitiveIterator.OfInt iterator() {
+        return stream().iterator();
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int key : keys) {
+            action.accept(key);
+        }
+    }
+
+    public IntStream stream() {
+        return Arrays.stream(keys);
+    }
+
+    public int[] toArray() {
+        return keys.clone();
+    }
+}
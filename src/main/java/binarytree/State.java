@@ -1 +1,3 @@
+package binarytree;
+
 public enum State { DATA, ROUTING }
@@ -0,0 +1,11 @@
+package binarytree;
+
+/* When a DurableBinaryTree forces its write-ahead log to disk.
+ * PER_OP: every update writes and fsyncs its own record before it returns;
+ *   updates are serialized on the log.
+ * BATCHED: group commit. An update returns once its record is on disk, but
+ *   one fsync covers every record appended by then, so concurrent writers
+ *   share them.
+ * PERIODIC: a background thread fsyncs at a fixed period and updates return
+ *   at once; a crash loses at most the last period of updates. */
+public enum SyncPolicy { PER_OP, BATCHED, PERIODIC }
@@ -0,0 +1,222 @@
+package binarytree;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/* Per-operation instrumentation of a BinaryTree, collected while it is
+ * enabled (BinaryTree.enableMetrics): latency histograms of contains,
+ * insert and delete, retries per operation, failed try-locks by kind of
+ * lock and the depth at which searches end. Only single-key calls are
+ * timed and counted; lock failures are counted for every caller.
+ *
+ * Every thread records into its own buffer of plain counters, so
+ * recording takes no atomic operations and no shared cache lines. Reads
+ * merge the buffers of all threads that ever recorded. Counts of running
+ * threads may be a little behind; once they are done, they are exact. */
+public final class TreeMetrics {
+    public enum Op { CONTAINS, INSERT, DELETE }
+
+    /* STATE_READ/STATE_WRITE: a node's state lock; CHILD: a child link lock. */
+    public enum Lock { STATE_READ, STATE_WRITE, CHILD }
+
+    /* Depths from MAX_DEPTH on share the last bucket. */
+    public static final int MAX_DEPTH = 64;
+
+    private static final Op[] OPS = Op.values();
+
+    private final Queue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Recorder> local = ThreadLocal.withInitial(this::register);
+
+    private Recorder register() {
+        Recorder recorder = new Recorder();
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    private static final class Recorder {
+        final long[][] latency = new long[OPS.length][Histogram.BUCKETS];
+        final long[] retries = new long[OPS.length];
+        final long[] retried = new long[OPS.length];
+        final long[] lockFailures = new long[Lock.values().length];
+        final long[] depths = new long[MAX_DEPTH + 1];
+    }
+
+    void record(Op op, long nanos, int retries, int depth) {
+        Recorder recorder = local.get();
+        recorder.latency[op.ordinal()][Histogram.bucket(nanos)]++;
+        if (retries > 0) {
+            recorder.retries[op.ordinal()] += retries;
+            recorder.retried[op.ordinal()]++;
+        }
+        recorder.depths[Math.min(depth, MAX_DEPTH)]++;
+    }
+
+    void lockFailed(Lock lock) {
+        local.get().lockFailures[lock.ordinal()]++;
+    }
+
+    /* Latency of op in nanoseconds. */
+    public Histogram latency(Op op) {
+        long[] counts = new long[Histogram.BUCKETS];
+        for (Recorder recorder : recorders) {
+            add(counts, recorder.latency[op.ordinal()]);
+        }
+        return new Histogram(counts);
+    }
+
+    public long operations(Op op) {
+        return latency(op).count();
+    }
+
+    /* Times op started over after losing a race (always 0 for contains). */
+    public long retries(Op op) {
+        long sum = 0;
+        for (Recorder recorder : recorders) {
+            sum += recorder.retries[op.ordinal()];
+        }
+        return sum;
+    }
+
+    /* Calls of op that needed at least one retry. */
+    public long retriedOperations(Op op) {
+        long sum = 0;
+        for (Recorder recorder : recorders) {
+            sum += recorder.retried[op.ordinal()];
+        }
+        return sum;
+    }
+
+    /* Try-locks on lock that failed because the lock, or one excluding it,
+     * was held. */
+    public long lockFailures(Lock lock) {
+        long sum = 0;
+        for (Recorder recorder : recorders) {
+            sum += recorder.lockFailures[lock.ordinal()];
+        }
+        return sum;
+    }
+
+    /* depths[d] is the number of timed operations whose search ended at
+     * depth d (root.left is 1); the last bucket holds MAX_DEPTH and deeper. */
+    public long[] depths() {
+        long[] depths = new long[MAX_DEPTH + 1];
+        for (Recorder recorder : recorders) {
+            add(depths, recorder.depths);
+        }
+        return depths;
+    }
+
+    private static void add(long[] sum, long[] counts) {
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] += counts[i];
+        }
+    }
+
+    /* p50/p99/p99.9 and retries per operation, one line each. */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Op op : OPS) {
+            Histogram histogram = latency(op);
+            text.append(String.format(Locale.ROOT, "%-8s n=%d p50=%dns p99=%dns p99.9=%dns max=%dns retries=%d%n",
+                    op.name().toLowerCase(Locale.ROOT), histogram.count(), histogram.percentile(50),
+                    histogram.percentile(99), histogram.percentile(99.9), histogram.max(), retries(op)));
+        }
+        text.append("lock failures");
+        for (Lock lock : Lock.values()) {
+            text.append(' ').append(lock.name().toLowerCase(Locale.ROOT)).append('=').append(lockFailures(lock));
+        }
+        return text.append('\n').toString();
+    }
+
+    /* An HDR-style histogram of non-negative longs: exact below 2^SUB_BITS,
+     * above that every power of two is cut into 2^SUB_BITS equal buckets,
+     * so a value is known to within about 3% over the whole long range. */
+    public static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+        private final long[] counts;
+        private final long count;
+
+        Histogram(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long c : counts) {
+                sum += c;
+            }
+            this.count = sum;
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) Math.max(0, value);
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        /* The largest value that falls into bucket. */
+        static long highest(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long low = ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << shift;
+            return low + (1L << shift) - 1;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        /* The value below which percent of the recorded values fall, rounded
+         * up to its bucket's upper end; 0 if nothing was recorded. */
+        public long percentile(double percent) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percent / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highest(i);
+                }
+            }
+            return max();
+        }
+
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highest(i);
+                }
+            }
+            return 0;
+        }
+
+        public double mean() {
+            if (count == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    // middle of the bucket
+                    sum += counts[i] * ((highest(i) + (i == 0 ? 0 : highest(i - 1) + 1)) / 2.0);
+                }
+            }
+            return sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "count=%d p50=%d p99=%d p99.9=%d max=%d",
+                    count, percentile(50), percentile(99), percentile(99.9), max());
+        }
+
+    }
+}
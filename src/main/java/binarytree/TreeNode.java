@@ -0,0 +1,210 @@
+package binarytree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/* The node of BinaryTree and its variants without the key: the child links
+ * and the lock word. The word holds the state read/write locks and the two
+ * child locks that used to be four ReentrantLocks (only try-lock is ever
+ * needed), the node's state and deleted flag, and above them a count of
+ * their changes. With these in one word a node stays small, and a state
+ * lock checks the state in the same CAS that takes it. */
+abstract class TreeNode<N extends TreeNode<N>> {
+    static final int STATE_READ = 1;
+    static final int STATE_WRITE = 1 << 1;
+    static final int LEFT = 1 << 2;
+    static final int RIGHT = 1 << 3;
+    static final int ROUTING = 1 << 4;
+    static final int DELETED = 1 << 5;
+    static final int VERSION_SHIFT = 6;
+    static final int VERSION = 1 << VERSION_SHIFT;
+
+    private static final VarHandle LOCKS;
+
+    static {
+        try {
+            LOCKS = MethodHandles.lookup().findVarHandle(TreeNode.class, "locks", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public volatile N left;
+    public volatile N right;
+    /* Lock bits, ROUTING, DELETED and the change count. Only the holder of
+     * the state write lock changes the flags, except that the locks that
+     * unlink a node also let delete and compact mark it deleted. */
+    private volatile int locks;
+
+    public State state() {
+        return ((locks & ROUTING) != 0 ? State.ROUTING : State.DATA);
+    }
+
+    public boolean isDeleted() {
+        return (locks & DELETED) != 0;
+    }
+
+    /* A DATA node that is not deleted, i.e. a key of the set. */
+    public boolean isMember() {
+        return (locks & (ROUTING | DELETED)) == 0;
+    }
+
+    void setState(State state) {
+        change(state == State.ROUTING ? ROUTING : 0, state == State.ROUTING ? 0 : ROUTING);
+    }
+
+    void setDeleted() {
+        change(DELETED, 0);
+    }
+
+    /* Back to a DATA node that is not deleted, for a node being reused. The
+     * change count goes on from its earlier life, and the lock bits are
+     * already clear: a node is only reused once nobody can be on it. */
+    void clearFlags() {
+        locks = locks & ~(ROUTING | DELETED);
+    }
+
+    /* Sets and clears flag bits and counts the change in one step, so
+     * readers never see half of it. */
+    private void change(int set, int clear) {
+        while (true) {
+            int word = locks;
+            if (LOCKS.compareAndSet(this, word, ((word & ~clear) | set) + VERSION)) {
+                return;
+            }
+        }
+    }
+
+    /* Change count and membership of this node, from one read, packed as
+     * (count << 1 | member). Newer observations compare greater; the count
+     * wraps after 2^26 changes of one node, far more than a reader could
+     * overlap. */
+    long observe() {
+        int word = locks;
+        return ((long) (word >>> VERSION_SHIFT) << 1) | ((word & (ROUTING | DELETED)) == 0 ? 1 : 0);
+    }
+
+    /* Called when a lock bit could not be had; for the tree's metrics. */
+    void lockFailed(int bit) {
+    }
+
+    /* Takes the lock bit unless it, or any of the excluding bits, is held. */
+    boolean tryLock(int bit, int excluding) {
+        int blocked = bit | excluding;
+        while (true) {
+            int word = locks;
+            if ((word & blocked) != 0) {
+                lockFailed(bit);
+                return false;
+            }
+            if (LOCKS.compareAndSet(this, word, word | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /* Whether bit is blocked by a held lock (bit itself or one of the
+     * excluding ones); the quick check before tryLock. */
+    private boolean blocked(int bit, int excluding) {
+        if ((locks & (bit | excluding)) != 0) {
+            lockFailed(bit);
+            return true;
+        }
+        return false;
+    }
+
+    private void unlock(int bit) {
+        LOCKS.getAndBitwiseAnd(this, ~bit);
+    }
+
+    void unlockRead() {
+        unlock(STATE_READ);
+    }
+
+    void unlockWrite() {
+        unlock(STATE_WRITE);
+    }
+
+    void unlockChild(boolean left) {
+        unlock(left ? LEFT : RIGHT);
+    }
+
+    boolean tryWriteLockState(State checkedState) {
+        return tryLockState(STATE_WRITE, STATE_READ, checkedState);
+    }
+
+    boolean tryReadLockState(State checkedState) {
+        return tryLockState(STATE_READ, STATE_WRITE, checkedState);
+    }
+
+    /* Takes the state lock bit if the node is in checkedState, not deleted
+     * and the lock is free, all in one CAS. */
+    private boolean tryLockState(int bit, int excluding, State checkedState) {
+        int expected = (checkedState == State.ROUTING ? ROUTING : 0);
+        while (true) {
+            int word = locks;
+            if ((word & (ROUTING | DELETED)) != expected) {
+                return false;
+            }
+            if ((word & (bit | excluding)) != 0) {
+                lockFailed(bit);
+                return false;
+            }
+            if (LOCKS.compareAndSet(this, word, word | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /* Locks the child link if it still points to expected. */
+    boolean tryWriteLockChildRef(boolean left, N expected) {
+        int bit = (left ? LEFT : RIGHT);
+        if (child(left) != expected || blocked(bit, 0)) {
+            return false;
+        }
+        if (tryLock(bit, 0)) {
+            if (child(left) != expected) {
+                unlockChild(left);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /* Locks the child link if it points to a node with the key of node. */
+    boolean tryWriteLockChildKey(boolean left, N node) {
+        int bit = (left ? LEFT : RIGHT);
+        N child = child(left);
+        if (child == null || !child.sameKey(node) || blocked(bit, 0)) {
+            return false;
+        }
+        if (tryLock(bit, 0)) {
+            child = child(left);
+            if (child == null || !child.sameKey(node)) {
+                unlockChild(left);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    abstract boolean sameKey(N other);
+
+    N child(boolean left) {
+        return (left ? this.left : this.right);
+    }
+
+    void setChild(boolean left, N child) {
+        if (left) {
+            this.left = child;
+        } else {
+            this.right = child;
+        }
+    }
+
+    public int numberOfChildren() {
+        return (left != null ? 1 : 0) + (right != null ? 1 : 0);
+    }
+}
@@ -0,0 +1,368 @@
+package binarytree;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/* What WorkloadRunner runs: the set to drive, how it is pre-filled, how
+ * keys are drawn and which operations are mixed in which proportions, and
+ * the thread counts and op mixes to sweep. Settings come from --name=value
+ * arguments, or from a properties file given with --config=<file> that the
+ * arguments then override. The defaults are the workload Main always ran:
+ * 50,000 keys out of 0..100,000, uniform, x inserts, x deletes and 1 - 2x
+ * lookups for x in {0, 0.1, 0.5}, 5 s per run, with keys partitioned by
+ * thread. */
+public final class Workload {
+    /* How a thread picks keys within its key space [base, base + size). */
+    public enum Distribution {
+        UNIFORM,
+        /* YCSB zipfian (theta 0.99), ranks scattered over the space so the
+         * hot keys are not neighbours. */
+        ZIPFIAN,
+        /* hotOps of the picks go to the first hotFraction of the space. */
+        HOTSPOT,
+        /* Each thread walks its space in order from a random start. */
+        SEQUENTIAL
+    }
+
+    /* RANGE counts the keys in [k, k + rangeLength); BULK_INSERT and
+     * BULK_DELETE apply bulkSize keys at once (insertAll/deleteAll where the
+     * set has them). */
+    public enum Op { CONTAINS, INSERT, DELETE, RANGE, BULK_INSERT, BULK_DELETE }
+
+    public enum Impl { TREE, HASHED_TREE, SHARDED, RANGE_SHARDED, CACHED, COMBINING, OFF_HEAP }
+
+    /* Operation weights, written op:weight,op:weight,... (weights need not add
+     * up to anything in particular). */
+    public static final class Mix {
+        private final Map<Op, Double> weights;
+        private final Op[] ops;
+        private final double[] cumulative;
+
+        public Mix(Map<Op, Double> weights) {
+            this.weights = new LinkedHashMap<>(weights);
+            double total = 0;
+            for (double weight : weights.values()) {
+                if (weight < 0) {
+                    throw new IllegalArgumentException("negative weight in mix " + weights);
+                }
+                total += weight;
+            }
+            if (total <= 0) {
+                throw new IllegalArgumentException("empty mix " + weights);
+            }
+            ops = weights.keySet().toArray(new Op[0]);
+            cumulative = new double[ops.length];
+            double sum = 0;
+            for (int i = 0; i < ops.length; i++) {
+                sum += weights.get(ops[i]) / total;
+                cumulative[i] = sum;
+            }
+            cumulative[ops.length - 1] = 1;
+        }
+
+        /* Main's mix: x inserts, x deletes, the rest lookups. */
+        public static Mix updates(double x) {
+            Map<Op, Double> weights = new LinkedHashMap<>();
+            weights.put(Op.CONTAINS, 1 - 2 * x);
+            weights.put(Op.INSERT, x);
+            weights.put(Op.DELETE, x);
+            return new Mix(weights);
+        }
+
+        public static Mix parse(String text) {
+            Map<Op, Double> weights = new LinkedHashMap<>();
+            for (String part : text.split(",")) {
+                String[] pair = part.trim().split(":");
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("expected op:weight, got '" + part + "'");
+                }
+                weights.merge(Op.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)), Double.parseDouble(pair[1]), Double::sum);
+            }
+            return new Mix(weights);
+        }
+
+        Op next(double p) {
+            int i = 0;
+            while (p >= cumulative[i] && i < ops.length - 1) {
+                i++;
+            }
+            return ops[i];
+        }
+
+        boolean uses(Op op) {
+            return weights.getOrDefault(op, 0.0) > 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<Op, Double> e : weights.entrySet()) {
+                if (text.length() > 0) {
+                    text.append(',');
+                }
+                text.append(e.getKey().name().toLowerCase(Locale.ROOT)).append(':').append(e.getValue().floatValue());
+            }
+            return text.toString();
+        }
+    }
+
+    Impl impl = Impl.TREE;
+    ContentionPolicy policy = ContentionPolicy.SPIN;
+    int shards = 64;
+    int cacheSize = 4096;
+    int initialKeys = 50_000;
+    int keyRange = 100_000;
+    Distribution distribution = Distribution.UNIFORM;
+    double hotFraction = 0.2;
+    double hotOps = 0.8;
+    boolean shared = false;
+    List<Mix> mixes = new ArrayList<>(Arrays.asList(Mix.updates(0), Mix.updates(0.1), Mix.updates(0.5)));
+    int rangeLength = 100;
+    int bulkSize = 64;
+    int[] threads = {1, 2, 4, 8, 16, 32, 64};
+    double seconds = 5;
+    double warmupSeconds = 1;
+    boolean latency = false;
+    String format = "csv";
+    Path output;
+    long seed = 42;
+
+    public static String usage() {
+        return String.join("\n",
+                "options (also accepted as keys of a --config properties file):",
+                "  --impl=tree|hashed_tree|sharded|range_sharded|cached|combining|off_heap   (tree)",
+                "  --policy=spin|backoff|park          contention policy of the trees (spin)",
+                "  --shards=N                          shards of sharded/range_sharded (64)",
+                "  --cacheSize=N                       slots of the cached impl (4096)",
+                "  --keys=N                            keys inserted before each run (50000)",
+                "  --range=N                           keys are drawn from 0..N-1 (100000)",
+                "  --distribution=uniform|zipfian|hotspot|sequential   (uniform)",
+                "  --hotFraction=F --hotOps=F          hotspot: F of the ops go to F of the keys (0.2, 0.8)",
+                "  --keyspace=partitioned|shared       split the range between threads or not (partitioned)",
+                "  --x=X1,X2,...                       mixes of x inserts, x deletes, rest lookups (0,0.1,0.5)",
+                "  --mix=op:w,op:w;op:w,...            explicit mixes, ';'-separated; ops are",
+                "                                      contains, insert, delete, range, bulk_insert, bulk_delete",
+                "  --rangeLength=N --bulkSize=N        keys per range scan / bulk op (100, 64)",
+                "  --threads=T1,T2,...                 thread counts to sweep (1,2,4,8,16,32,64)",
+                "  --seconds=S --warmup=S              measured and warm-up time per run (5, 1)",
+                "  --latency=true|false                p50/p99/p99.9 per op via TreeMetrics, tree impls only (false)",
+                "  --format=csv|json --output=FILE     results format and file (csv, stdout)",
+                "  --seed=N                            seed of the initial keys (42)");
+    }
+
+    public static Workload parse(String... args) throws IOException {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("expected --name=value, got '" + arg + "'");
+            }
+            int eq = arg.indexOf('=');
+            settings.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        Workload workload = new Workload();
+        String config = settings.remove("config");
+        if (config != null) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(Path.of(config))) {
+                properties.load(reader);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                workload.set(name, properties.getProperty(name).trim());
+            }
+        }
+        for (Map.Entry<String, String> e : settings.entrySet()) {
+            workload.set(e.getKey(), e.getValue());
+        }
+        workload.validate();
+        return workload;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "impl":
+                impl = Impl.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "policy":
+                policy = ContentionPolicy.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "shards":
+                shards = Integer.parseInt(value);
+                break;
+            case "cacheSize":
+                cacheSize = Integer.parseInt(value);
+                break;
+            case "keys":
+                initialKeys = Integer.parseInt(value);
+                break;
+            case "range":
+                keyRange = Integer.parseInt(value);
+                break;
+            case "distribution":
+                distribution = Distribution.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "hotFraction":
+                hotFraction = Double.parseDouble(value);
+                break;
+            case "hotOps":
+                hotOps = Double.parseDouble(value);
+                break;
+            case "keyspace":
+                if (!value.equals("shared") && !value.equals("partitioned")) {
+                    throw new IllegalArgumentException("keyspace is shared or partitioned, not '" + value + "'");
+                }
+                shared = value.equals("shared");
+                break;
+            case "x":
+                mixes = new ArrayList<>();
+                for (String x : value.split(",")) {
+                    mixes.add(Mix.updates(Double.parseDouble(x)));
+                }
+                break;
+            case "mix":
+                mixes = new ArrayList<>();
+                for (String mix : value.split(";")) {
+                    mixes.add(Mix.parse(mix));
+                }
+                break;
+            case "rangeLength":
+                rangeLength = Integer.parseInt(value);
+                break;
+            case "bulkSize":
+                bulkSize = Integer.parseInt(value);
+                break;
+            case "threads":
+                threads = Arrays.stream(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+                break;
+            case "seconds":
+                seconds = Double.parseDouble(value);
+                break;
+            case "warmup":
+                warmupSeconds = Double.parseDouble(value);
+                break;
+            case "latency":
+                latency = Boolean.parseBoolean(value);
+                break;
+            case "format":
+                format = value.toLowerCase(Locale.ROOT);
+                break;
+            case "output":
+                output = Path.of(value);
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option '" + name + "'");
+        }
+    }
+
+    private void validate() {
+        if (keyRange < 1 || initialKeys < 0 || initialKeys > keyRange) {
+            throw new IllegalArgumentException("need 0 <= keys <= range and range >= 1");
+        }
+        if (hotFraction <= 0 || hotFraction > 1 || hotOps < 0 || hotOps > 1) {
+            throw new IllegalArgumentException("hotFraction must be in (0, 1] and hotOps in [0, 1]");
+        }
+        if (Arrays.stream(threads).anyMatch(t -> t < 1 || (!shared && t > keyRange))) {
+            throw new IllegalArgumentException("thread counts must be positive (and at most range when partitioned)");
+        }
+        if (seconds <= 0 || warmupSeconds < 0 || rangeLength < 1 || bulkSize < 1 || shards < 1 || cacheSize < 1) {
+            throw new IllegalArgumentException("seconds, rangeLength, bulkSize, shards and cacheSize must be positive");
+        }
+        if (!format.equals("csv") && !format.equals("json")) {
+            throw new IllegalArgumentException("format is csv or json, not '" + format + "'");
+        }
+        if (latency && impl != Impl.TREE && impl != Impl.HASHED_TREE) {
+            throw new IllegalArgumentException("latency needs --impl=tree or hashed_tree");
+        }
+        boolean ordered = (impl == Impl.TREE || impl == Impl.RANGE_SHARDED);
+        if (!ordered && mixes.stream().anyMatch(mix -> mix.uses(Op.RANGE))) {
+            throw new IllegalArgumentException("range ops need --impl=tree or range_sharded");
+        }
+    }
+
+    /* Draws the keys of one thread from [base, base + size), with the
+     * thread's ThreadLocalRandom. Not thread-safe: every thread has its own. */
+    static final class KeySource {
+        static final double THETA = 0.99;
+
+        private final Distribution distribution;
+        private final int base;
+        private final int size;
+        private final int hotSize;
+        private final double hotOps;
+        private final double zetaN;
+        private final double eta;
+        private int position;
+
+        /* zetaN is zeta(size) for ZIPFIAN (an O(size) sum, so the caller
+         * computes it once per run) and ignored otherwise. */
+        KeySource(Distribution distribution, int base, int size, double hotFraction, double hotOps, double zetaN) {
+            this.distribution = distribution;
+            this.base = base;
+            this.size = size;
+            this.hotSize = Math.max(1, (int) (size * hotFraction));
+            this.hotOps = hotOps;
+            this.zetaN = zetaN;
+            this.eta = (size > 1 ? (1 - Math.pow(2.0 / size, 1 - THETA)) / (1 - zeta(2) / zetaN) : 0);
+            this.position = ThreadLocalRandom.current().nextInt(size);
+        }
+
+        static double zeta(long n) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, THETA);
+            }
+            return sum;
+        }
+
+        int next() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            switch (distribution) {
+                case ZIPFIAN:
+                    return base + scatter(zipfRank(random.nextDouble()));
+                case HOTSPOT:
+                    if (random.nextDouble() < hotOps || hotSize == size) {
+                        return base + random.nextInt(hotSize);
+                    }
+                    return base + hotSize + random.nextInt(size - hotSize);
+                case SEQUENTIAL:
+                    int key = base + position;
+                    position = (position + 1 == size ? 0 : position + 1);
+                    return key;
+                default:
+                    return base + random.nextInt(size);
+            }
+        }
+
+        private long zipfRank(double u) {
+            if (size == 1) {
+                return 0;
+            }
+            double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, THETA)) {
+                return 1;
+            }
+            return Math.min(size - 1, (long) (size * Math.pow(eta * u - eta + 1, 1 / (1 - THETA))));
+        }
+
+        private int scatter(long rank) {
+            long h = rank * 0x9E3779B97F4A7C15L;
+            h ^= (h >>> 32);
+            return (int) Math.floorMod(h, (long) size);
+        }
+    }
+}
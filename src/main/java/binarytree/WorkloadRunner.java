@@ -0,0 +1,466 @@
+package binarytree;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/* Runs a Workload: for every op mix and thread count a fresh set is built
+ * and pre-filled, run for the warm-up time, then measured. Worker threads
+ * draw ops and keys with ThreadLocalRandom, count operations in plain
+ * locals and only check the stop flag between operations. */
+public final class WorkloadRunner {
+    /* One measured run. ops[i] counts Op.values()[i]; metrics is null
+     * unless the workload asked for latencies. */
+    public static final class Result {
+        public final Workload.Mix mix;
+        public final int threads;
+        public final double seconds;
+        public final long[] ops;
+        public TreeMetrics metrics;
+
+        Result(Workload.Mix mix, int threads, double seconds, long[] ops) {
+            this.mix = mix;
+            this.threads = threads;
+            this.seconds = seconds;
+            this.ops = ops;
+        }
+
+        public long totalOps() {
+            long total = 0;
+            for (long count : ops) {
+                total += count;
+            }
+            return total;
+        }
+
+        public double opsPerSecond() {
+            return totalOps() / seconds;
+        }
+    }
+
+    /* The operations a workload needs from the set under test. */
+    private interface Target {
+        boolean contains(int v);
+
+        boolean insert(int v);
+
+        boolean delete(int v);
+
+        long size();
+
+        int count(int lo, int hi);
+
+        int insertAll(int[] keys);
+
+        int deleteAll(int[] keys);
+
+        /* Fresh TreeMetrics for the next run, where the set has them. */
+        default TreeMetrics startMetrics() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final Workload workload;
+    private final PrintStream progress;
+    private final Map<Integer, Double> zetas = new HashMap<>();
+    private volatile boolean running;
+    /* What the lookups of the last run found, summed over the workers.
+     * Storing it keeps the lookups from being optimized away. */
+    private volatile long sink;
+
+    public WorkloadRunner(Workload workload, PrintStream progress) {
+        this.workload = workload;
+        this.progress = progress;
+    }
+
+    public List<Result> run() throws InterruptedException {
+        List<Result> results = new ArrayList<>();
+        for (Workload.Mix mix : workload.mixes) {
+            for (int threads : workload.threads) {
+                Target target = create();
+                fill(target);
+                if (workload.warmupSeconds > 0) {
+                    measure(target, mix, threads, workload.warmupSeconds);
+                }
+                TreeMetrics metrics = (workload.latency ? target.startMetrics() : null);
+                Result result = measure(target, mix, threads, workload.seconds);
+                result.metrics = metrics;
+                progress.printf(Locale.ROOT, "%s threads=%d mix=%s: %.0f ops/s%n",
+                        workload.impl, threads, mix, result.opsPerSecond());
+                if (metrics != null) {
+                    progress.print(metrics);
+                }
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private Target create() {
+        switch (workload.impl) {
+            case TREE:
+                return fromTree(new BinaryTree(workload.policy));
+            case HASHED_TREE:
+                return fromTree(new BinaryTree(workload.policy, KeyOrder.HASHED));
+            case SHARDED:
+                return fromSharded(new ShardedBinaryTree(Partitioner.hash(workload.shards), workload.policy, KeyOrder.NATURAL));
+            case RANGE_SHARDED:
+                // equal slices of the workload's key range, not of the int domain
+                int shards = Math.min(workload.shards, workload.keyRange);
+                int[] bounds = new int[shards - 1];
+                for (int i = 1; i < shards; i++) {
+                    bounds[i - 1] = (int) ((long) i * workload.keyRange / shards);
+                }
+                return fromSharded(new ShardedBinaryTree(Partitioner.splitAt(bounds), workload.policy, KeyOrder.NATURAL));
+            case CACHED:
+                return fromIntSet(new CachedIntSet(new BinaryTree(workload.policy), workload.cacheSize));
+            case COMBINING:
+                return fromIntSet(new CombiningBinaryTree(new BinaryTree(workload.policy)));
+            default:
+                return fromIntSet(new OffHeapBinaryTree(workload.policy));
+        }
+    }
+
+    private static Target fromTree(BinaryTree tree) {
+        return new Target() {
+            @Override
+            public boolean contains(int v) {
+                return tree.contains(v);
+            }
+
+            @Override
+            public boolean insert(int v) {
+                return tree.insert(v);
+            }
+
+            @Override
+            public boolean delete(int v) {
+                return tree.delete(v);
+            }
+
+            @Override
+            public long size() {
+                return tree.size();
+            }
+
+            @Override
+            public int count(int lo, int hi) {
+                return countKeys(tree.range(lo, hi));
+            }
+
+            @Override
+            public int insertAll(int[] keys) {
+                return tree.insertAll(keys);
+            }
+
+            @Override
+            public int deleteAll(int[] keys) {
+                return tree.deleteAll(keys);
+            }
+
+            @Override
+            public TreeMetrics startMetrics() {
+                tree.disableMetrics();
+                return tree.enableMetrics();
+            }
+        };
+    }
+
+    private static Target fromSharded(ShardedBinaryTree tree) {
+        return new Target() {
+            @Override
+            public boolean contains(int v) {
+                return tree.contains(v);
+            }
+
+            @Override
+            public boolean insert(int v) {
+                return tree.insert(v);
+            }
+
+            @Override
+            public boolean delete(int v) {
+                return tree.delete(v);
+            }
+
+            @Override
+            public long size() {
+                return tree.size();
+            }
+
+            @Override
+            public int count(int lo, int hi) {
+                return countKeys(tree.range(lo, hi));
+            }
+
+            @Override
+            public int insertAll(int[] keys) {
+                return insertEach(this, keys);
+            }
+
+            @Override
+            public int deleteAll(int[] keys) {
+                return deleteEach(this, keys);
+            }
+        };
+    }
+
+    private static Target fromIntSet(IntSet set) {
+        return new Target() {
+            @Override
+            public boolean contains(int v) {
+                return set.contains(v);
+            }
+
+            @Override
+            public boolean insert(int v) {
+                return set.insert(v);
+            }
+
+            @Override
+            public boolean delete(int v) {
+                return set.delete(v);
+            }
+
+            @Override
+            public long size() {
+                return set.size();
+            }
+
+            @Override
+            public int count(int lo, int hi) {
+                throw new UnsupportedOperationException("no range scans on " + set.getClass().getSimpleName());
+            }
+
+            @Override
+            public int insertAll(int[] keys) {
+                return insertEach(this, keys);
+            }
+
+            @Override
+            public int deleteAll(int[] keys) {
+                return deleteEach(this, keys);
+            }
+        };
+    }
+
+    private static int countKeys(PrimitiveIterator.OfInt keys) {
+        int count = 0;
+        while (keys.hasNext()) {
+            keys.nextInt();
+            count++;
+        }
+        return count;
+    }
+
+    private static int insertEach(Target target, int[] keys) {
+        int added = 0;
+        for (int key : keys) {
+            if (target.insert(key)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private static int deleteEach(Target target, int[] keys) {
+        int removed = 0;
+        for (int key : keys) {
+            if (target.delete(key)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /* initialKeys distinct keys, uniform over the range and the same for
+     * every run with the same seed. */
+    private void fill(Target target) {
+        SplittableRandom random = new SplittableRandom(workload.seed);
+        while (target.size() < workload.initialKeys) {
+            target.insert(random.nextInt(workload.keyRange));
+        }
+    }
+
+    private Result measure(Target target, Workload.Mix mix, int threads, double seconds) throws InterruptedException {
+        long[][] counts = new long[threads][];
+        Thread[] workers = new Thread[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        running = true;
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Workload.KeySource keys = keySource(id, threads);
+            workers[t] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                counts[id] = work(target, mix, keys);
+            }, "workload-" + t);
+            workers[t].start();
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        running = false;
+        long end = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long[] total = new long[Workload.Op.values().length];
+        long looked = 0;
+        for (long[] count : counts) {
+            if (count == null) {
+                continue;
+            }
+            for (int i = 0; i < total.length; i++) {
+                total[i] += count[i];
+            }
+            looked += count[total.length];
+        }
+        sink = looked;
+        return new Result(mix, threads, (end - begin) / 1e9, total);
+    }
+
+    private Workload.KeySource keySource(int thread, int threads) {
+        int base = 0;
+        int size = workload.keyRange;
+        if (!workload.shared) {
+            base = (int) ((long) thread * workload.keyRange / threads);
+            size = (int) ((long) (thread + 1) * workload.keyRange / threads) - base;
+        }
+        double zeta = 0;
+        if (workload.distribution == Workload.Distribution.ZIPFIAN) {
+            zeta = zetas.computeIfAbsent(size, Workload.KeySource::zeta);
+        }
+        return new Workload.KeySource(workload.distribution, base, size, workload.hotFraction, workload.hotOps, zeta);
+    }
+
+    /* Counts per op, followed by what the lookups found. */
+    private long[] work(Target target, Workload.Mix mix, Workload.KeySource keys) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] counts = new long[Workload.Op.values().length + 1];
+        int[] bulk = new int[workload.bulkSize];
+        int rangeLength = workload.rangeLength;
+        long found = 0;
+        while (running) {
+            Workload.Op op = mix.next(random.nextDouble());
+            switch (op) {
+                case CONTAINS:
+                    found += target.contains(keys.next()) ? 1 : 0;
+                    break;
+                case INSERT:
+                    target.insert(keys.next());
+                    break;
+                case DELETE:
+                    target.delete(keys.next());
+                    break;
+                case RANGE:
+                    int lo = keys.next();
+                    found += target.count(lo, (int) Math.min(Integer.MAX_VALUE, (long) lo + rangeLength));
+                    break;
+                case BULK_INSERT:
+                    for (int i = 0; i < bulk.length; i++) {
+                        bulk[i] = keys.next();
+                    }
+                    target.insertAll(bulk);
+                    break;
+                default:
+                    for (int i = 0; i < bulk.length; i++) {
+                        bulk[i] = keys.next();
+                    }
+                    target.deleteAll(bulk);
+                    break;
+            }
+            counts[op.ordinal()]++;
+        }
+        counts[counts.length - 1] = found;
+        return counts;
+    }
+
+    /* Writes the results in the workload's format: CSV with one row per run,
+     * or a JSON array with one object per run. */
+    public void write(List<Result> results, Writer out) throws IOException {
+        Workload.Op[] ops = Workload.Op.values();
+        String keyspace = (workload.shared ? "shared" : "partitioned");
+        if (workload.format.equals("json")) {
+            out.write("[\n");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                out.write(String.format(Locale.ROOT,
+                        "  {\"impl\": \"%s\", \"distribution\": \"%s\", \"keyspace\": \"%s\", \"keys\": %d, \"range\": %d,"
+                                + " \"threads\": %d, \"mix\": \"%s\", \"seconds\": %.3f, \"ops\": %d, \"opsPerSecond\": %.1f",
+                        workload.impl, workload.distribution, keyspace, workload.initialKeys, workload.keyRange,
+                        result.threads, result.mix, result.seconds, result.totalOps(), result.opsPerSecond()));
+                for (Workload.Op op : ops) {
+                    out.write(String.format(", \"%s\": %d", op.name().toLowerCase(Locale.ROOT), result.ops[op.ordinal()]));
+                }
+                if (result.metrics != null) {
+                    for (TreeMetrics.Op op : TreeMetrics.Op.values()) {
+                        TreeMetrics.Histogram latency = result.metrics.latency(op);
+                        out.write(String.format(Locale.ROOT, ", \"%sLatencyNs\": {\"p50\": %d, \"p99\": %d, \"p999\": %d}",
+                                op.name().toLowerCase(Locale.ROOT), latency.percentile(50), latency.percentile(99),
+                                latency.percentile(99.9)));
+                    }
+                }
+                out.write(r + 1 < results.size() ? "},\n" : "}\n");
+            }
+            out.write("]\n");
+        } else {
+            out.write("impl,distribution,keyspace,keys,range,threads,mix,seconds,ops,ops_per_sec");
+            for (Workload.Op op : ops) {
+                out.write("," + op.name().toLowerCase(Locale.ROOT));
+            }
+            if (workload.latency) {
+                for (TreeMetrics.Op op : TreeMetrics.Op.values()) {
+                    String name = op.name().toLowerCase(Locale.ROOT);
+                    out.write("," + name + "_p50_ns," + name + "_p99_ns," + name + "_p999_ns");
+                }
+            }
+            out.write("\n");
+            for (Result result : results) {
+                out.write(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,\"%s\",%.3f,%d,%.1f",
+                        workload.impl, workload.distribution, keyspace, workload.initialKeys, workload.keyRange,
+                        result.threads, result.mix, result.seconds, result.totalOps(), result.opsPerSecond()));
+                for (Workload.Op op : ops) {
+                    out.write("," + result.ops[op.ordinal()]);
+                }
+                if (result.metrics != null) {
+                    for (TreeMetrics.Op op : TreeMetrics.Op.values()) {
+                        TreeMetrics.Histogram latency = result.metrics.latency(op);
+                        out.write("," + latency.percentile(50) + "," + latency.percentile(99) + "," + latency.percentile(99.9));
+                    }
+                }
+                out.write("\n");
+            }
+        }
+        out.flush();
+    }
+
+    /* Writes to the workload's output file, or to out if it has none. */
+    public void write(List<Result> results, PrintStream out) throws IOException {
+        if (workload.output != null) {
+            try (Writer writer = Files.newBufferedWriter(workload.output)) {
+                write(results, writer);
+            }
+        } else {
+            Writer writer = new OutputStreamWriter(out);
+            write(results, writer);
+        }
+    }
+}
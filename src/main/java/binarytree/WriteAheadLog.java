@@ -0,0 +1,249 @@
+package binarytree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/* The log behind DurableBinaryTree: a directory of segments wal-<n>.log,
+ * each a sequence of 12-byte records
+ *
+ *   op (int) | key (int) | CRC32 of the first 8 bytes (int)
+ *
+ * Records are appended to an in-memory batch under appendLock and given
+ * the log position after them. sync(position) makes sure the batch up to
+ * there is written and forced: the first thread to take flushLock writes
+ * and forces everything appended so far, the others queue up behind it and
+ * usually find their records already durable when they get the lock. */
+final class WriteAheadLog implements AutoCloseable {
+    static final int INSERT = 1;
+    static final int DELETE = 2;
+    private static final int RECORD_BYTES = 12;
+
+    interface Replay {
+        void apply(int op, int key);
+    }
+
+    private final Path dir;
+    private final SyncPolicy policy;
+    private final Object appendLock = new Object();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer batch = newBatch(4096);
+    private ByteBuffer spare = newBatch(4096);
+    /* Bytes appended and bytes known to be on disk, counted from open(). */
+    private long appended;
+    private volatile long durable;
+    private FileChannel channel;
+    private long segment;
+    private IOException failure;
+
+    private WriteAheadLog(Path dir, SyncPolicy policy, long segment) throws IOException {
+        this.dir = dir;
+        this.policy = policy;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+    }
+
+    /* Replays every segment in dir, oldest first, and starts a new one.
+     * A torn record at the end of a segment (a crash during the write) ends
+     * that segment's replay. */
+    static WriteAheadLog open(Path dir, SyncPolicy policy, Replay replay) throws IOException {
+        Files.createDirectories(dir);
+        long last = 0;
+        for (long segment : segments(dir)) {
+            replay(dir.resolve(segmentName(segment)), replay);
+            last = segment;
+        }
+        return new WriteAheadLog(dir, policy, last + 1);
+    }
+
+    private static void replay(Path file, Replay replay) throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 check = new CRC32();
+        while (records.remaining() >= RECORD_BYTES) {
+            int op = records.getInt();
+            int key = records.getInt();
+            int stored = records.getInt();
+            check.reset();
+            check.update(records.array(), records.position() - RECORD_BYTES, 8);
+            if ((int) check.getValue() != stored || (op != INSERT && op != DELETE)) {
+                return;
+            }
+            replay.apply(op, key);
+        }
+    }
+
+    private static List<Long> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(f -> f.getFileName().toString())
+                    .filter(name -> name.startsWith("wal-") && name.endsWith(".log"))
+                    .map(name -> Long.parseLong(name.substring(4, name.length() - 4)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String segmentName(long segment) {
+        return String.format("wal-%012d.log", segment);
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        FileChannel channel = FileChannel.open(dir.resolve(segmentName(segment)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        // make the new file's directory entry durable too
+        forceDirectory();
+        return channel;
+    }
+
+    private void forceDirectory() {
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory; the data itself is still forced
+        }
+    }
+
+    private static ByteBuffer newBatch(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /* Appends a record and returns the position to sync() for it. With
+     * PER_OP the record is written and forced right here, under appendLock,
+     * so the batch stays empty. */
+    long append(int op, int key) throws IOException {
+        synchronized (appendLock) {
+            checkFailure();
+            if (batch.remaining() < RECORD_BYTES) {
+                ByteBuffer larger = newBatch(2 * batch.capacity());
+                larger.put(batch.flip());
+                batch = larger;
+            }
+            batch.putInt(op).putInt(key);
+            crc.reset();
+            crc.update(batch.array(), batch.position() - 8, 8);
+            batch.putInt((int) crc.getValue());
+            appended += RECORD_BYTES;
+            if (policy == SyncPolicy.PER_OP) {
+                write(batch.flip());
+                batch.clear();
+                durable = appended;
+            }
+            return appended;
+        }
+    }
+
+    /* Everything appended so far, for callers that need what they read to
+     * be durable. */
+    long position() {
+        synchronized (appendLock) {
+            return appended;
+        }
+    }
+
+    /* Returns once the log is durable up to position (at once with PERIODIC). */
+    void sync(long position) throws IOException {
+        if (durable >= position || policy == SyncPolicy.PERIODIC) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            if (durable < position) {
+                flush();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /* Writes and forces the current batch. Runs under flushLock. */
+    void flush() throws IOException {
+        ByteBuffer out;
+        long end;
+        synchronized (appendLock) {
+            checkFailure();
+            end = appended;
+            if (end == durable) {
+                return;
+            }
+            out = batch;
+            batch = spare;
+            batch.clear();
+            spare = out;
+        }
+        write(out.flip());
+        durable = end;
+    }
+
+    private void write(ByteBuffer out) throws IOException {
+        try {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            synchronized (appendLock) {
+                failure = e;
+            }
+            throw e;
+        }
+    }
+
+    void flushQuietly() {
+        flushLock.lock();
+        try {
+            flush();
+        } catch (IOException e) {
+            // recorded in failure, the next update reports it
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /* Flushes and starts a new segment. Returns the segments before it, which
+     * the caller may delete once their updates are in a checkpoint. */
+    List<Path> rotate() throws IOException {
+        flushLock.lock();
+        try {
+            synchronized (appendLock) {
+                flush();
+                channel.close();
+                List<Path> old = new ArrayList<>();
+                for (long s : segments(dir)) {
+                    old.add(dir.resolve(segmentName(s)));
+                }
+                segment++;
+                channel = openSegment(segment);
+                return old;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("write-ahead log failed earlier", failure);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushLock.lock();
+        try {
+            flush();
+            channel.close();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,1489 @@
+package binarytree;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.fail;
+
+public class TreeTest {
+    public class TestWorker implements Runnable {
+        private BinaryTree tree;
+        private Collection<Integer> elements;
+        private boolean insert;
+
+        public TestWorker(BinaryTree tree, Collection<Integer> elements, boolean insert) {
+            this.tree = tree;
+            this.elements = elements;
+            this.insert = insert;
+        }
+
+        @Override
+        public void run() {
+            for (int i : elements) {
+                if (insert) {
+                    tree.insert(i);
+                } else {
+                    tree.delete(i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sequentialTreeInsertTest() {
+        BinaryTree tree = new BinaryTree();
+        int[] data = new int[1_000_000];
+        Random random = new Random();
+        for (int i = 0; i < 1_000_000; i++) {
+            data[i] = random.nextInt(500_000);
+        }
+        for (int i : data) {
+            tree.insert(i);
+        }
+        for (int i : data) {
+            Assert.assertTrue(tree.contains(i));
+        }
+    }
+
+
+    @Test
+    public void sequentialTreeInsertAndDeleteTest() {
+        BinaryTree tree = new BinaryTree();
+        Set<Integer> data = new HashSet<>();
+        Set<Integer> delete = new HashSet<>();
+        Random random = new Random();
+        for (int i = 0; i < 10_000; i++) {
+            data.add(random.nextInt(3000));
+        }
+        int size = data.size();
+        for (int i = 0; i < 3_000; i++) {
+            delete.add(random.nextInt(3000));
+        }
+        for (int i : data) {
+            tree.insert(i);
+        }
+        for (int i : data) {
+            Assert.assertTrue(tree.contains(i));
+        }
+        for (int i : delete) {
+            tree.delete(i);
+        }
+        data.removeAll(delete);
+        Assert.assertNotEquals(size, data.size());
+        for (int i : delete) {
+            Assert.assertFalse(tree.contains(i));
+        }
+        for (int i : data) {
+            Assert.assertTrue(tree.contains(i));
+        }
+    }
+
+    @Test
+    public void falsePositiveContainsTest() {
+        BinaryTree tree = new BinaryTree();
+        Random random = new Random();
+        for (int i = 0; i < 1_000; i++) {
+            tree.insert(random.nextInt(1_000));
+        }
+        Assert.assertFalse(tree.contains(10001));
+    }
+
+
+    @Test
+    public void parallelTreeTest() {
+        BinaryTree tree = new BinaryTree();
+
+        List<Integer> data1 = new ArrayList<>();
+        List<Integer> data2 = new ArrayList<>();
+        List<Integer> delete1 = new ArrayList<>();
+        List<Integer> delete2 = new ArrayList<>();
+
+        for (int i = 0; i < 1_000_000; i++) {
+            if (i % 2 == 0) {
+                data1.add(i);
+                if (i % 3 == 0) {
+                    delete1.add(i);
+                }
+            } else {
+                data2.add(i);
+                if (i % 3 == 0) {
+                    delete1.add(i);
+                }
+            }
+        }
+        Collections.shuffle(data1);
+        Collections.shuffle(data2);
+        Thread thread1 = new Thread(new TestWorker(tree, data1, true));
+        Thread thread2 = new Thread(new TestWorker(tree, data2, true));
+        thread1.start();
+        thread2.start();
+        try {
+            thread1.join();
+            thread2.join();
+        } catch (InterruptedException e) {
+            fail();
+        }
+        for (int i = 0; i < 1_000_000; i++) {
+            Assert.assertTrue(tree.contains(i));
+        }
+
+         thread1 = new Thread(new TestWorker(tree, delete1, false));
+         thread2 = new Thread(new TestWorker(tree, delete2, false));
+        thread1.start();
+        thread2.start();
+        try {
+            thread1.join();
+            thread2.join();
+        } catch (InterruptedException e) {
+            fail();
+        }
+        for (int i = 0; i < 1_000_000; i++) {
+            if (i % 3 == 0) {
+                Assert.assertFalse(tree.contains(i));
+            } else {
+                Assert.assertTrue(tree.contains(i));
+            }
+        }
+
+    }
+
+    @Test
+    public void contendedUpdatesTest() throws InterruptedException {
+        for (ContentionPolicy policy : ContentionPolicy.values()) {
+            BinaryTree tree = new BinaryTree(policy);
+            int threads = 2 * Runtime.getRuntime().availableProcessors() + 2;
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                workers.add(new Thread(() -> {
+                    for (int round = 0; round < 50; round++) {
+                        for (int i = id; i < 2_000; i += threads) {
+                            tree.insert(i);
+                        }
+                        for (int i = id; i < 2_000; i += threads) {
+                            if (i % 2 == 0 || round < 49) {
+                                tree.delete(i);
+                            }
+                        }
+                    }
+                }));
+            }
+            workers.forEach(Thread::start);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            for (int i = 0; i < 2_000; i++) {
+                Assert.assertEquals(policy.toString(), i % 2 != 0, tree.contains(i));
+            }
+        }
+    }
+
+    @Test
+    public void batchOperationsTest() {
+        Random random = new Random();
+        int[] keys = new int[200_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(300_000) - 150_000;
+        }
+        int[] deleted = Arrays.copyOf(keys, keys.length / 3);
+        Set<Integer> expected = new HashSet<>();
+        for (int key : keys) {
+            expected.add(key);
+        }
+        int inserted = expected.size();
+        for (int key : deleted) {
+            expected.remove(key);
+        }
+        int[] probes = new int[100_000];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = random.nextInt(300_000) - 150_000;
+        }
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            BinaryTree tree = new BinaryTree();
+            Assert.assertEquals(inserted, parallel ? tree.parallelInsertAll(keys) : tree.insertAll(keys));
+            Assert.assertEquals(0, tree.insertAll(keys));
+            int removed = inserted - expected.size();
+            Assert.assertEquals(removed, parallel ? tree.parallelDeleteAll(deleted) : tree.deleteAll(deleted));
+            boolean[] result = new boolean[probes.length];
+            int hits = parallel ? tree.parallelContainsAll(probes, result) : tree.containsAll(probes, result);
+            int expectedHits = 0;
+            for (int i = 0; i < probes.length; i++) {
+                Assert.assertEquals(expected.contains(probes[i]), result[i]);
+                Assert.assertEquals(expected.contains(probes[i]), tree.contains(probes[i]));
+                expectedHits += result[i] ? 1 : 0;
+            }
+            Assert.assertEquals(expectedHits, hits);
+        }
+    }
+
+    @Test
+    public void concurrentBatchAndPointOperationsTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree();
+        int[] even = new int[50_000];
+        for (int i = 0; i < even.length; i++) {
+            even[i] = 2 * i;
+        }
+        Thread batches = new Thread(() -> {
+            for (int round = 0; round < 5; round++) {
+                tree.parallelInsertAll(even);
+                if (round < 4) {
+                    tree.deleteAll(even);
+                }
+            }
+        });
+        Thread points = new Thread(() -> {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < even.length; i++) {
+                    tree.insert(2 * i + 1);
+                }
+                for (int i = 0; i < even.length; i += 2) {
+                    tree.delete(2 * i + 1);
+                }
+            }
+        });
+        batches.start();
+        points.start();
+        batches.join();
+        points.join();
+        for (int i = 0; i < 2 * even.length; i++) {
+            Assert.assertEquals(i % 2 == 0 || i % 4 == 3, tree.contains(i));
+        }
+    }
+
+    @Test
+    public void bulkLoadTest() {
+        int[] sorted = new int[1_000_000];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = 3 * i;
+        }
+        BinaryTree tree = BinaryTree.build(sorted);
+        for (int i = 0; i < 3 * sorted.length; i++) {
+            Assert.assertEquals(i % 3 == 0, tree.contains(i));
+        }
+        for (int i = 0; i < 3 * sorted.length; i += 2) {
+            if (i % 3 == 0) {
+                Assert.assertTrue(tree.delete(i));
+            } else {
+                Assert.assertTrue(tree.insert(i));
+            }
+        }
+        for (int i = 0; i < 3 * sorted.length; i++) {
+            Assert.assertEquals((i % 3 == 0) != (i % 2 == 0), tree.contains(i));
+        }
+
+        BinaryTree fromStream = BinaryTree.build(IntStream.of(5, -1, 5, Integer.MIN_VALUE, 7, -1));
+        for (int key : new int[]{5, -1, Integer.MIN_VALUE, 7}) {
+            Assert.assertTrue(fromStream.contains(key));
+            Assert.assertFalse(fromStream.insert(key));
+        }
+        Assert.assertFalse(fromStream.contains(6));
+        Assert.assertFalse(BinaryTree.build(new int[0]).contains(0));
+    }
+
+    @Test
+    public void hashedKeyOrderTest() {
+        BinaryTree tree = new BinaryTree(ContentionPolicy.SPIN, KeyOrder.HASHED);
+        for (int i = 0; i < 200_000; i++) {
+            Assert.assertTrue(tree.insert(i));
+        }
+        Assert.assertTrue(tree.height() < 64);
+        for (int i = 0; i < 200_000; i += 2) {
+            Assert.assertTrue(tree.delete(i));
+        }
+        for (int i = -10; i < 200_010; i++) {
+            Assert.assertEquals(i >= 0 && i < 200_000 && i % 2 == 1, tree.contains(i));
+        }
+        Assert.assertEquals(0, tree.insertAll(new int[]{1, 3, 5}));
+        Assert.assertEquals(3, tree.deleteAll(new int[]{1, 3, 5}));
+        Assert.assertFalse(tree.contains(3));
+
+        BinaryTree built = BinaryTree.build(new int[]{Integer.MIN_VALUE, -1, 0, 42}, ContentionPolicy.SPIN, KeyOrder.HASHED);
+        for (int key : new int[]{Integer.MIN_VALUE, -1, 0, 42}) {
+            Assert.assertTrue(built.contains(key));
+        }
+        Assert.assertFalse(built.contains(1));
+
+        // large enough to be split into fork-join tasks
+        BinaryTree parallel = new BinaryTree(ContentionPolicy.SPIN, KeyOrder.HASHED);
+        int[] keys = IntStream.range(0, 20_000).map(i -> 3 * i - 30_000).toArray();
+        Assert.assertEquals(keys.length, parallel.parallelInsertAll(keys));
+        Assert.assertEquals(keys.length, parallel.size());
+        for (int key : keys) {
+            Assert.assertTrue(parallel.contains(key));
+        }
+        Assert.assertEquals(keys.length, parallel.parallelDeleteAll(keys));
+        Assert.assertEquals(0, parallel.size());
+    }
+
+    @Test
+    public void routingNodeMetricsTest() {
+        BinaryTree tree = new BinaryTree();
+        for (int key : new int[]{20, 10, 30, 5, 15}) {
+            tree.insert(key);
+        }
+        Assert.assertTrue(tree.delete(10));
+        Assert.assertEquals(1, tree.getRoutingNodeCount());
+        Assert.assertTrue(tree.insert(10));
+        Assert.assertEquals(0, tree.getRoutingNodeCount());
+        Assert.assertTrue(tree.delete(10));
+        Assert.assertTrue(tree.delete(5));
+        Assert.assertEquals(0, tree.getRoutingNodeCount());
+        Assert.assertEquals(1, tree.getReclaimedRoutingNodes());
+        Assert.assertEquals(0, tree.compact());
+        Assert.assertTrue(tree.contains(15));
+        Assert.assertFalse(tree.contains(10));
+    }
+
+    @Test
+    public void churnLeavesNothingToCompactTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree();
+        int threads = 4;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 200_000; i++) {
+                    int key = random.nextInt(5_000) * threads + id;
+                    if (random.nextBoolean()) {
+                        tree.insert(key);
+                    } else {
+                        tree.delete(key);
+                    }
+                }
+                for (int key = id; key < 5_000 * threads; key += threads) {
+                    if (key % 3 == 0) {
+                        tree.insert(key);
+                    } else {
+                        tree.delete(key);
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (int key = 0; key < 5_000 * threads; key++) {
+            Assert.assertEquals(key % 3 == 0, tree.contains(key));
+        }
+        // delete keeps every ROUTING node at two children, even under churn
+        long reclaimed = tree.getReclaimedRoutingNodes();
+        Assert.assertEquals(0, tree.compact());
+        Assert.assertEquals(reclaimed, tree.getReclaimedRoutingNodes());
+        Assert.assertEquals(tree.size() + tree.getRoutingNodeCount(), tree.getNodeCount());
+    }
+
+    @Test
+    public void sizeStatisticsTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree(ContentionPolicy.SPIN, KeyOrder.HASHED);
+        int threads = 4;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 100_000; i++) {
+                    int key = random.nextInt(2_000) * threads + id;
+                    if (random.nextBoolean()) {
+                        tree.insert(key);
+                    } else {
+                        tree.delete(key);
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        int[] counted = new int[1];
+        tree.forEach(key -> counted[0]++);
+        Assert.assertEquals(counted[0], tree.size());
+        Assert.assertEquals(tree.size() + tree.getRoutingNodeCount(), tree.getNodeCount());
+        Assert.assertTrue(tree.getMaxDepth() >= tree.height());
+
+        tree.compact();
+        Assert.assertEquals(counted[0], tree.size());
+        Assert.assertEquals(tree.size() + tree.getRoutingNodeCount(), tree.getNodeCount());
+
+        int[] keys = IntStream.range(0, 10_000).toArray();
+        BinaryTree built = BinaryTree.build(keys);
+        Assert.assertEquals(10_000, built.size());
+        Assert.assertEquals(built.height(), built.getMaxDepth());
+        Assert.assertEquals(5_000, built.deleteAll(IntStream.range(0, 5_000).map(i -> 2 * i).toArray()));
+        Assert.assertEquals(5_000, built.size());
+        Assert.assertEquals(built.size() + built.getRoutingNodeCount(), built.getNodeCount());
+    }
+
+    @Test
+    public void orderedIterationTest() {
+        TreeSet<Integer> expected = new TreeSet<>();
+        BinaryTree tree = new BinaryTree();
+        Random random = new Random();
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt();
+            tree.insert(key);
+            expected.add(key);
+        }
+        for (int i = 0; i < 30_000; i++) {
+            int key = random.nextInt();
+            tree.delete(key);
+            expected.remove(key);
+        }
+        List<Integer> all = new ArrayList<>();
+        tree.forEach(all::add);
+        Assert.assertEquals(new ArrayList<>(expected), all);
+
+        int lo = -1_000_000_000;
+        int hi = 1_000_000_000;
+        List<Integer> range = new ArrayList<>();
+        tree.range(lo, hi).forEachRemaining((IntConsumer) range::add);
+        Assert.assertEquals(new ArrayList<>(expected.subSet(lo, hi)), range);
+        Assert.assertFalse(tree.range(5, 5).hasNext());
+
+        // the top of the int domain is only reachable with an inclusive bound
+        BinaryTree top = new BinaryTree();
+        for (int key : new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE - 1, 0, Integer.MIN_VALUE}) {
+            top.insert(key);
+        }
+        List<Integer> closed = new ArrayList<>();
+        top.rangeClosed(0, Integer.MAX_VALUE).forEachRemaining((IntConsumer) closed::add);
+        Assert.assertEquals(List.of(0, Integer.MAX_VALUE - 1, Integer.MAX_VALUE), closed);
+        closed.clear();
+        top.rangeClosed(Integer.MIN_VALUE, Integer.MIN_VALUE).forEachRemaining((IntConsumer) closed::add);
+        Assert.assertEquals(List.of(Integer.MIN_VALUE), closed);
+        Assert.assertFalse(top.rangeClosed(1, 0).hasNext());
+        ShardedBinaryTree sharded = new ShardedBinaryTree(Partitioner.rangeShards(4));
+        sharded.insert(Integer.MAX_VALUE);
+        sharded.insert(7);
+        closed.clear();
+        sharded.rangeClosed(7, Integer.MAX_VALUE).forEachRemaining((IntConsumer) closed::add);
+        Assert.assertEquals(List.of(7, Integer.MAX_VALUE), closed);
+
+        BinaryTree chain = new BinaryTree();
+        for (int i = 0; i < 20_000; i++) {
+            chain.insert(i);
+        }
+        PrimitiveIterator.OfInt iterator = chain.iterator();
+        for (int i = 0; i < 20_000; i++) {
+            Assert.assertEquals(i, iterator.nextInt());
+        }
+        Assert.assertFalse(iterator.hasNext());
+
+        BinaryTree hashed = new BinaryTree(ContentionPolicy.SPIN, KeyOrder.HASHED);
+        Set<Integer> seen = new HashSet<>();
+        for (int i = -500; i < 500; i++) {
+            hashed.insert(i);
+        }
+        hashed.forEach(seen::add);
+        Assert.assertEquals(1_000, seen.size());
+        Assert.assertTrue(seen.contains(-500) && seen.contains(499));
+    }
+
+    @Test
+    public void iterationUnderConcurrentUpdatesTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree();
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys);
+        for (int key : keys) {
+            if (key % 2 == 0) {
+                tree.insert(key);
+            }
+        }
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 3; round++) {
+                for (int key : keys) {
+                    if (key % 2 == 1) {
+                        tree.insert(key);
+                    }
+                }
+                for (int key : keys) {
+                    if (key % 2 == 1) {
+                        tree.delete(key);
+                    }
+                }
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            PrimitiveIterator.OfInt iterator = tree.iterator();
+            int previous = -1;
+            int expectedEven = 0;
+            while (iterator.hasNext()) {
+                int key = iterator.nextInt();
+                Assert.assertTrue(key > previous);
+                previous = key;
+                if (key % 2 == 0) {
+                    Assert.assertEquals(expectedEven, key);
+                    expectedEven += 2;
+                }
+            }
+            Assert.assertEquals(200_000, expectedEven);
+        }
+        writer.join();
+    }
+
+    @Test
+    public void snapshotTest() {
+        BinaryTree tree = new BinaryTree();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random();
+        for (int i = 0; i < 50_000; i++) {
+            int key = random.nextInt(100_000);
+            if (random.nextInt(3) == 0) {
+                tree.delete(key);
+                expected.remove(key);
+            } else {
+                tree.insert(key);
+                expected.add(key);
+            }
+        }
+        Snapshot snapshot = tree.snapshot();
+        Assert.assertEquals(expected.size(), snapshot.size());
+        int[] keys = snapshot.toArray();
+        int i = 0;
+        for (int key : expected) {
+            Assert.assertEquals(key, keys[i++]);
+        }
+        tree.insert(-1);
+        Assert.assertFalse(snapshot.contains(-1));
+        Assert.assertTrue(tree.snapshot().contains(-1));
+    }
+
+    /* The writer only ever moves a token between a low and a high key, adding
+     * the new position before removing the old one, so at every moment at
+     * least one of the two is present. A plain scan can miss both (it passes
+     * the high key before the token lands there and the low key after it has
+     * left); a linearizable snapshot cannot. */
+    @Test
+    public void snapshotIsLinearizableTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree();
+        int pairs = 64;
+        int offset = 1_000_000;
+        for (int i = 0; i < 10_000; i++) {
+            tree.insert(i * 37 % 1_000 + 2_000);
+        }
+        for (int p = 0; p < pairs; p++) {
+            tree.insert(p);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                for (int p = 0; p < pairs; p++) {
+                    tree.insert(p + offset);
+                    tree.delete(p);
+                }
+                for (int p = 0; p < pairs; p++) {
+                    tree.insert(p);
+                    tree.delete(p + offset);
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 500; round++) {
+                Snapshot snapshot = tree.snapshot();
+                for (int p = 0; p < pairs; p++) {
+                    Assert.assertTrue(snapshot.contains(p) || snapshot.contains(p + offset));
+                }
+                Assert.assertTrue(snapshot.size() >= 1_000 + pairs);
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void fullKeyDomainTest() {
+        for (KeyOrder order : KeyOrder.values()) {
+            BinaryTree tree = new BinaryTree(ContentionPolicy.SPIN, order);
+            Assert.assertFalse(tree.contains(Integer.MAX_VALUE));
+            Assert.assertFalse(tree.delete(Integer.MAX_VALUE));
+            for (int key : new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE, 0, -1, Integer.MAX_VALUE - 1}) {
+                Assert.assertTrue(tree.insert(key));
+            }
+            Assert.assertFalse(tree.insert(Integer.MAX_VALUE));
+            Assert.assertEquals(5, tree.size());
+            Assert.assertEquals(5, tree.snapshot().size());
+            Assert.assertTrue(tree.delete(Integer.MAX_VALUE));
+            Assert.assertFalse(tree.contains(Integer.MAX_VALUE));
+            Assert.assertTrue(tree.contains(Integer.MIN_VALUE));
+        }
+        BinaryTree built = BinaryTree.build(new int[]{Integer.MIN_VALUE, 7, Integer.MAX_VALUE});
+        Assert.assertEquals(3, built.size());
+        Assert.assertTrue(built.contains(Integer.MAX_VALUE));
+        List<Integer> keys = new ArrayList<>();
+        built.forEach((IntConsumer) keys::add);
+        Assert.assertEquals(Arrays.asList(Integer.MIN_VALUE, 7, Integer.MAX_VALUE), keys);
+    }
+
+    @Test
+    public void longKeysTest() throws InterruptedException {
+        LongBinaryTree tree = new LongBinaryTree();
+        int threads = 4;
+        long base = 1L << 40;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 100_000; i++) {
+                    long key = base + random.nextInt(2_000) * threads + id;
+                    if (random.nextBoolean()) {
+                        tree.insert(key);
+                    } else {
+                        tree.delete(key);
+                    }
+                }
+                for (long key = base + id; key < base + 2_000 * threads; key += threads) {
+                    if (key % 3 == 0) {
+                        tree.insert(key);
+                    } else {
+                        tree.delete(key);
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long expected = 0;
+        for (long key = base; key < base + 2_000 * threads; key++) {
+            Assert.assertEquals(key % 3 == 0, tree.contains(key));
+            expected += (key % 3 == 0 ? 1 : 0);
+        }
+        Assert.assertEquals(expected, tree.size());
+        Assert.assertEquals(tree.size() + tree.getRoutingNodeCount(), tree.getNodeCount());
+
+        Assert.assertTrue(tree.insert(Long.MAX_VALUE));
+        Assert.assertTrue(tree.insert(Long.MIN_VALUE));
+        long[] last = {Long.MIN_VALUE};
+        int[] count = {0};
+        tree.forEach((long key) -> {
+            Assert.assertTrue(count[0] == 0 || key > last[0]);
+            last[0] = key;
+            count[0]++;
+        });
+        Assert.assertEquals(expected + 2, count[0]);
+        Assert.assertEquals(Long.MAX_VALUE, last[0]);
+    }
+
+    @Test
+    public void objectKeysTest() {
+        ObjectBinaryTree<String> tree = new ObjectBinaryTree<>(Comparator.reverseOrder());
+        TreeSet<String> expected = new TreeSet<>(Comparator.reverseOrder());
+        Random random = new Random(5);
+        for (int i = 0; i < 20_000; i++) {
+            String key = Integer.toString(random.nextInt(3_000));
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.add(key), tree.insert(key));
+            } else {
+                Assert.assertEquals(expected.remove(key), tree.delete(key));
+            }
+        }
+        Assert.assertEquals(expected.size(), tree.size());
+        List<String> keys = new ArrayList<>();
+        tree.forEach(keys::add);
+        Assert.assertEquals(new ArrayList<>(expected), keys);
+        for (int i = 0; i < 3_000; i++) {
+            String key = Integer.toString(i);
+            // an equal but distinct String still finds the key
+            Assert.assertEquals(expected.contains(key), tree.contains(new String(key)));
+        }
+    }
+
+    @Test
+    public void mapOperationsTest() {
+        BinaryTreeMap<String> map = new BinaryTreeMap<>();
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(3_000);
+            String value = Integer.toString(i);
+            switch (random.nextInt(4)) {
+                case 0:
+                    Assert.assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 1:
+                    Assert.assertEquals(expected.putIfAbsent(key, value), map.putIfAbsent(key, value));
+                    break;
+                case 2:
+                    Assert.assertEquals(expected.computeIfAbsent(key, k -> value), map.computeIfAbsent(key, k -> value));
+                    break;
+                default:
+                    Assert.assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 3_000; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+        Assert.assertNull(map.computeIfAbsent(5_000, k -> null));
+        Assert.assertFalse(map.containsKey(5_000));
+    }
+
+    @Test
+    public void concurrentMapTest() throws InterruptedException {
+        BinaryTreeMap<long[]> map = new BinaryTreeMap<>();
+        int threads = 4;
+        AtomicBoolean consistent = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 100_000; i++) {
+                    int key = random.nextInt(1_000);
+                    if (random.nextInt(4) == 0) {
+                        map.remove(key);
+                    } else if (random.nextBoolean()) {
+                        map.put(key, new long[]{key});
+                    }
+                    long[] value = map.get(key);
+                    if (value != null && value[0] != key) {
+                        consistent.set(false);
+                    }
+                }
+                // counters: every thread bumps each of 0..999 once
+                for (int key = 0; key < 1_000; key++) {
+                    long[] counter = map.computeIfAbsent(key + 10_000, k -> new long[1]);
+                    synchronized (counter) {
+                        counter[0]++;
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertTrue(consistent.get());
+        for (int key = 0; key < 1_000; key++) {
+            Assert.assertEquals(threads, map.get(key + 10_000)[0]);
+        }
+    }
+
+    @Test
+    public void offHeapTreeTest() {
+        OffHeapBinaryTree tree = new OffHeapBinaryTree();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(8);
+        for (int i = 0; i < 300_000; i++) {
+            int key = random.nextInt(5_000) - 2_500;
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.add(key), tree.insert(key));
+            } else {
+                Assert.assertEquals(expected.remove(key), tree.delete(key));
+            }
+        }
+        Assert.assertEquals(expected.size(), tree.size());
+        for (int key = -2_500; key < 2_500; key++) {
+            Assert.assertEquals(expected.contains(key), tree.contains(key));
+        }
+        Assert.assertTrue(tree.insert(Integer.MAX_VALUE));
+        Assert.assertTrue(tree.contains(Integer.MAX_VALUE));
+        // unlinked nodes come back through the free-list instead of growing the tree
+        Assert.assertTrue(tree.getFreeNodeCount() > 0);
+        Assert.assertEquals(1 << 24, tree.getOffHeapBytes());
+        tree.close();
+        Assert.assertEquals(0, tree.getOffHeapBytes());
+    }
+
+    @Test
+    public void concurrentOffHeapTreeTest() throws InterruptedException {
+        OffHeapBinaryTree tree = new OffHeapBinaryTree(ContentionPolicy.BACKOFF);
+        int threads = 4;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 200_000; i++) {
+                    int key = random.nextInt(500) * threads + id;
+                    if (random.nextBoolean()) {
+                        tree.insert(key);
+                    } else {
+                        tree.delete(key);
+                    }
+                    tree.contains(random.nextInt(2_000));
+                }
+                for (int key = id; key < 2_000; key += threads) {
+                    if (key % 3 == 0) {
+                        tree.insert(key);
+                    } else {
+                        tree.delete(key);
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (int key = 0; key < 2_000; key++) {
+            Assert.assertEquals(key % 3 == 0, tree.contains(key));
+        }
+        Assert.assertEquals(667, tree.size());
+        // threads too short-lived to reclaim anything themselves
+        for (int t = 0; t < 1_000; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < 20; i++) {
+                    tree.insert(2_001);
+                    tree.delete(2_001);
+                }
+            });
+            worker.start();
+            worker.join();
+        }
+        // this thread takes over what they retired while it deletes the rest
+        for (int key = 0; key < 2_000; key += 3) {
+            Assert.assertTrue(tree.delete(key));
+        }
+        Assert.assertEquals(0, tree.size());
+        Assert.assertTrue(tree.getRetiredNodeCount() < 1_000);
+        Assert.assertTrue(tree.getFreeNodeCount() > 0);
+    }
+
+    @Test
+    public void checkpointTest() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path file = dir.resolve("tree.ckpt");
+        try {
+            BinaryTree tree = new BinaryTree();
+            Random random = new Random(13);
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < 50_000; i++) {
+                int key = (i % 2 == 0 ? random.nextInt(100_000) : random.nextInt());
+                tree.insert(key);
+                expected.add(key);
+            }
+            for (int key : new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+                tree.insert(key);
+                expected.add(key);
+            }
+            Assert.assertEquals(expected.size(), Checkpoint.write(tree, file));
+            int[] keys = expected.stream().mapToInt(Integer::intValue).toArray();
+            Assert.assertArrayEquals(keys, Checkpoint.readKeys(file));
+            for (KeyOrder order : KeyOrder.values()) {
+                BinaryTree loaded = Checkpoint.load(file, ContentionPolicy.SPIN, order);
+                Assert.assertEquals(expected.size(), loaded.size());
+                Assert.assertArrayEquals(keys, loaded.snapshot().toArray());
+            }
+
+            // taken while writers run: the untouched keys are all there
+            BinaryTree live = BinaryTree.build(IntStream.range(0, 100_000).map(i -> 2 * i).toArray());
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread writer = new Thread(() -> {
+                Random r = new Random(1);
+                while (running.get()) {
+                    int key = 2 * r.nextInt(1_000) + 1;
+                    if (!live.insert(key)) {
+                        live.delete(key);
+                    }
+                }
+            });
+            writer.start();
+            try {
+                Checkpoint.write(live, file);
+            } finally {
+                running.set(false);
+                writer.join();
+            }
+            BinaryTree loaded = Checkpoint.load(file);
+            for (int i = 0; i < 100_000; i++) {
+                Assert.assertTrue(loaded.contains(2 * i));
+            }
+
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(file, bytes);
+            try {
+                Checkpoint.load(file);
+                fail();
+            } catch (IOException expectedCorruption) {
+                // the checksum or the key order gives it away
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void durableTreeTest() throws Exception {
+        for (SyncPolicy policy : SyncPolicy.values()) {
+            Path dir = Files.createTempDirectory("wal");
+            try {
+                TreeSet<Integer> expected = new TreeSet<>();
+                Random random = new Random(policy.ordinal());
+                try (DurableBinaryTree tree = DurableBinaryTree.open(dir, policy)) {
+                    for (int i = 0; i < 20_000; i++) {
+                        int key = random.nextInt(5_000);
+                        if (random.nextBoolean()) {
+                            Assert.assertEquals(expected.add(key), tree.insert(key));
+                        } else {
+                            Assert.assertEquals(expected.remove(key), tree.delete(key));
+                        }
+                        if (i == 10_000) {
+                            tree.checkpoint();
+                        }
+                    }
+                }
+                try (DurableBinaryTree tree = DurableBinaryTree.open(dir, policy)) {
+                    Assert.assertEquals(expected.size(), tree.size());
+                    for (int key = 0; key < 5_000; key++) {
+                        Assert.assertEquals(expected.contains(key), tree.contains(key));
+                    }
+                    // concurrent writers on disjoint keys
+                    Thread[] workers = new Thread[4];
+                    for (int t = 0; t < workers.length; t++) {
+                        int id = t;
+                        workers[t] = new Thread(() -> {
+                            for (int i = 0; i < 500; i++) {
+                                tree.insert(10_000 + 4 * i + id);
+                            }
+                        });
+                        workers[t].start();
+                    }
+                    for (Thread worker : workers) {
+                        worker.join();
+                    }
+                }
+                for (int i = 0; i < 2_000; i++) {
+                    expected.add(10_000 + i);
+                }
+
+                // a record torn by a crash is dropped, the ones before it survive
+                Path last;
+                try (Stream<Path> files = Files.list(dir)) {
+                    last = files.filter(f -> f.getFileName().toString().startsWith("wal-")).max(Path::compareTo).get();
+                }
+                byte[] log = Files.readAllBytes(last);
+                int torn = ByteBuffer.wrap(log, log.length - 8, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                Files.write(last, Arrays.copyOf(log, log.length - 5));
+                expected.remove(torn);
+                try (DurableBinaryTree tree = DurableBinaryTree.open(dir, policy)) {
+                    Assert.assertEquals(expected.size(), tree.size());
+                    Assert.assertFalse(tree.contains(torn));
+                }
+            } finally {
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path f : (Iterable<Path>) files::iterator) {
+                        Files.delete(f);
+                    }
+                }
+                Files.delete(dir);
+            }
+        }
+    }
+
+    @Test
+    public void shardedTreeTest() throws InterruptedException {
+        Partitioner[] partitioners = {
+                Partitioner.hash(8), Partitioner.rangeShards(8), Partitioner.splitAt(-1_000, 0, 1_000),
+                Partitioner.splitAt(5)};
+        for (Partitioner partitioner : partitioners) {
+            ShardedBinaryTree tree = new ShardedBinaryTree(partitioner);
+            Thread[] workers = new Thread[4];
+            for (int t = 0; t < workers.length; t++) {
+                int id = t;
+                workers[t] = new Thread(() -> {
+                    for (int key = -5_000 + id; key < 5_000; key += workers.length) {
+                        tree.insert(key);
+                    }
+                    for (int key = -5_000 + id; key < 5_000; key += 3 * workers.length) {
+                        tree.delete(key);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int key = -5_000; key < 5_000; key++) {
+                if ((key + 5_000) % 12 >= 4) {
+                    expected.add(key);
+                }
+            }
+            Assert.assertEquals(expected.size(), tree.size());
+            Assert.assertEquals(tree.size(), Arrays.stream(tree.getShardSizes()).sum());
+            for (int key = -6_000; key < 6_000; key++) {
+                Assert.assertEquals(expected.contains(key), tree.contains(key));
+            }
+            List<Integer> all = new ArrayList<>();
+            tree.forEach((IntConsumer) all::add);
+            Collections.sort(all);
+            Assert.assertEquals(new ArrayList<>(expected), all);
+
+            if (partitioner.isOrdered()) {
+                List<Integer> iterated = new ArrayList<>();
+                tree.iterator().forEachRemaining((IntConsumer) iterated::add);
+                Assert.assertEquals(new ArrayList<>(expected), iterated);
+                List<Integer> range = new ArrayList<>();
+                tree.range(-1_500, 700).forEachRemaining((IntConsumer) range::add);
+                Assert.assertEquals(new ArrayList<>(expected.subSet(-1_500, 700)), range);
+            } else {
+                try {
+                    tree.range(0, 10);
+                    fail();
+                } catch (UnsupportedOperationException expectedUnordered) {
+                    // hash partitioning scatters ranges over all shards
+                }
+            }
+        }
+        // a single split point, not five shards
+        Partitioner split = Partitioner.splitAt(5);
+        Assert.assertEquals(2, split.shards());
+        Assert.assertEquals(0, split.shardOf(4));
+        Assert.assertEquals(1, split.shardOf(5));
+        Assert.assertEquals(5, Partitioner.rangeShards(5).shards());
+    }
+
+    @Test
+    public void cachedSetTest() throws InterruptedException {
+        CachedIntSet cached = new CachedIntSet(new BinaryTree(), 64);
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 100_000; i++) {
+            // mostly lookups of a few hot keys, so the 64 slots both hit and evict
+            int key = (random.nextInt(4) == 0 ? random.nextInt(1_000) : random.nextInt(16));
+            int op = random.nextInt(10);
+            if (op == 0) {
+                Assert.assertEquals(expected.add(key), cached.insert(key));
+            } else if (op == 1) {
+                Assert.assertEquals(expected.remove(key), cached.delete(key));
+            } else {
+                Assert.assertEquals(expected.contains(key), cached.contains(key));
+            }
+        }
+        Assert.assertEquals(64, cached.getCapacity());
+        Assert.assertTrue(cached.getHitRate() > 0.3);
+
+        // every thread sees its own updates at once, cached or not
+        Thread[] workers = new Thread[4];
+        AtomicBoolean failed = new AtomicBoolean();
+        for (int t = 0; t < workers.length; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int key = 4 * (i % 8) + id + 10_000;
+                    boolean present = cached.contains(key) && cached.contains(key);
+                    if (present ? !cached.delete(key) : !cached.insert(key)) {
+                        failed.set(true);
+                    }
+                    if (cached.contains(key) == present || cached.contains(key) == present) {
+                        failed.set(true);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertFalse(failed.get());
+    }
+
+    @Test
+    public void workloadTest() throws Exception {
+        for (Workload.Distribution distribution : Workload.Distribution.values()) {
+            Workload.KeySource keys = new Workload.KeySource(distribution, 1_000, 500, 0.1, 0.9,
+                    Workload.KeySource.zeta(500));
+            Set<Integer> seen = new HashSet<>();
+            for (int i = 0; i < 10_000; i++) {
+                int key = keys.next();
+                Assert.assertTrue(key >= 1_000 && key < 1_500);
+                seen.add(key);
+            }
+            Assert.assertTrue(distribution + " hits too few keys", seen.size() > 200);
+        }
+
+        Path config = Files.createTempFile("workload", ".properties");
+        try {
+            Files.write(config, Arrays.asList("threads=1,3", "keys=500", "range=1000", "seconds=5"));
+            Workload workload = Workload.parse("--config=" + config, "--seconds=0.05", "--warmup=0",
+                    "--keyspace=shared", "--distribution=zipfian",
+                    "--mix=contains:6,insert:1,delete:1,range:1,bulk_insert:1;insert:1");
+            WorkloadRunner runner = new WorkloadRunner(workload, new PrintStream(OutputStream.nullOutputStream()));
+            List<WorkloadRunner.Result> results = runner.run();
+            Assert.assertEquals(4, results.size());
+            Assert.assertEquals(3, results.get(1).threads);
+            for (WorkloadRunner.Result result : results) {
+                Assert.assertTrue(result.totalOps() > 0);
+            }
+            Assert.assertEquals(0, results.get(3).ops[Workload.Op.CONTAINS.ordinal()]);
+            StringWriter csv = new StringWriter();
+            runner.write(results, csv);
+            String[] lines = csv.toString().split("\n");
+            Assert.assertEquals(5, lines.length);
+            Assert.assertTrue(lines[0].startsWith("impl,distribution,keyspace"));
+        } finally {
+            Files.delete(config);
+        }
+        try {
+            Workload.parse("--impl=off_heap", "--mix=range:1");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // the off-heap tree has no range scans
+        }
+    }
+
+    @Test
+    public void metricsTest() throws InterruptedException {
+        Random random = new Random(3);
+        for (int i = 0; i < 10_000; i++) {
+            long value = (i < 100 ? i : random.nextLong() >>> (1 + random.nextInt(63)));
+            long highest = TreeMetrics.Histogram.highest(TreeMetrics.Histogram.bucket(value));
+            Assert.assertTrue(highest >= value && highest - value <= value / 32);
+        }
+
+        BinaryTree tree = new BinaryTree();
+        tree.insert(-1);
+        Assert.assertNull(tree.getMetrics());
+        TreeMetrics metrics = tree.enableMetrics();
+        Assert.assertSame(metrics, tree.enableMetrics());
+        Thread[] workers = new Thread[4];
+        for (int t = 0; t < workers.length; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    tree.insert(4 * i + id);
+                    tree.contains(i);
+                }
+                for (int i = 0; i < 500; i++) {
+                    tree.delete(4 * i + id);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        tree.disableMetrics();
+        tree.insert(-2);
+        Assert.assertEquals(4_000, metrics.operations(TreeMetrics.Op.INSERT));
+        Assert.assertEquals(4_000, metrics.operations(TreeMetrics.Op.CONTAINS));
+        Assert.assertEquals(2_000, metrics.operations(TreeMetrics.Op.DELETE));
+        Assert.assertEquals(10_000, Arrays.stream(metrics.depths()).sum());
+        Assert.assertEquals(0, metrics.depths()[0]);
+        Assert.assertEquals(0, metrics.retries(TreeMetrics.Op.CONTAINS));
+        Assert.assertTrue(metrics.retries(TreeMetrics.Op.INSERT) >= metrics.retriedOperations(TreeMetrics.Op.INSERT));
+        TreeMetrics.Histogram latency = metrics.latency(TreeMetrics.Op.INSERT);
+        Assert.assertTrue(latency.percentile(50) > 0);
+        Assert.assertTrue(latency.percentile(50) <= latency.percentile(99));
+        Assert.assertTrue(latency.percentile(99.9) <= latency.max());
+    }
+
+    @Test
+    public void recyclingTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree(ContentionPolicy.SPIN, KeyOrder.NATURAL, true);
+        Assert.assertTrue(tree.isRecycling());
+        for (int i = 0; i < 1_000; i++) {
+            // keys that stay: multiples of 8
+            tree.insert(8 * i);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicBoolean broken = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            while (!stop.get()) {
+                int[] keys = tree.snapshot().toArray();
+                int stable = 0;
+                for (int key : keys) {
+                    stable += (key % 8 == 0 ? 1 : 0);
+                }
+                int last = Integer.MIN_VALUE;
+                int seen = 0;
+                for (PrimitiveIterator.OfInt it = tree.iterator(); it.hasNext(); ) {
+                    int key = it.nextInt();
+                    if (key <= last) {
+                        broken.set(true);
+                    }
+                    last = key;
+                    seen += (key % 8 == 0 ? 1 : 0);
+                }
+                if (stable != 1_000 || seen != 1_000) {
+                    broken.set(true);
+                }
+            }
+        });
+        reader.start();
+        Thread[] workers = new Thread[4];
+        for (int t = 0; t < workers.length; t++) {
+            int id = t + 1;
+            workers[t] = new Thread(() -> {
+                for (int round = 0; round < 200; round++) {
+                    for (int i = 0; i < 1_000; i++) {
+                        tree.insert(8 * i + id);
+                    }
+                    for (int i = 0; i < 1_000; i++) {
+                        if (!tree.contains(8 * i + id) || !tree.delete(8 * i + id)) {
+                            broken.set(true);
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        stop.set(true);
+        reader.join();
+        Assert.assertFalse(broken.get());
+        Assert.assertEquals(1_000, tree.size());
+        Assert.assertEquals(1_000, tree.snapshot().size());
+        Assert.assertTrue(tree.getRecycledNodeCount() > 0);
+        Assert.assertEquals(0, new BinaryTree().getRecycledNodeCount());
+    }
+
+    @Test
+    public void shortLivedThreadsRecyclingTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree(ContentionPolicy.SPIN, KeyOrder.NATURAL, true);
+        for (int i = 0; i < 1_000; i++) {
+            tree.insert(2 * i);
+        }
+        // each thread retires fewer nodes than it collects before reclaiming
+        for (int t = 0; t < 2_000; t++) {
+            int base = 2 * (t % 500) + 1;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    tree.insert(base);
+                    tree.delete(base);
+                }
+            });
+            worker.start();
+            worker.join();
+        }
+        Assert.assertEquals(1_000, tree.size());
+        Assert.assertTrue(tree.getRecycledNodeCount() > 20_000);
+    }
+
+    @Test
+    public void asyncSetTest() throws Exception {
+        Assert.assertEquals(Runtime.version().feature() >= 21, AsyncIntSet.virtualThreadsSupported());
+        if (!AsyncIntSet.virtualThreadsSupported()) {
+            try {
+                AsyncIntSet.onVirtualThreads(new BinaryTree());
+                fail();
+            } catch (UnsupportedOperationException expected) {
+                // Java 17 runtime
+            }
+        }
+        BinaryTree tree = new BinaryTree(ContentionPolicy.COOPERATIVE);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try (AsyncIntSet async = (AsyncIntSet.virtualThreadsSupported()
+                ? AsyncIntSet.onVirtualThreads(tree) : new AsyncIntSet(tree, pool))) {
+            List<CompletableFuture<Boolean>> inserts = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                inserts.add(async.insert(i % 5_000));
+            }
+            int added = 0;
+            for (CompletableFuture<Boolean> insert : inserts) {
+                added += (insert.get() ? 1 : 0);
+            }
+            Assert.assertEquals(5_000, added);
+            Assert.assertTrue(async.contains(42).thenCompose(found -> async.delete(42)).get());
+            Assert.assertFalse(async.contains(42).get());
+            Assert.assertSame(tree, async.getSet());
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(4_999, tree.size());
+    }
+
+    @Test
+    public void combiningTreeTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree();
+        // one region, so every update goes through the same publication array
+        CombiningBinaryTree set = new CombiningBinaryTree(tree, 1, 31);
+        Assert.assertEquals(1, set.getRegionCount());
+        Assert.assertEquals(2, new CombiningBinaryTree(tree, 2, 10).getRegionCount());
+        Assert.assertEquals(8, new CombiningBinaryTree(tree, 5, 10).getRegionCount());
+        Assert.assertEquals(64, new CombiningBinaryTree(tree).getRegionCount());
+        int threads = 8;
+        int[] inserted = new int[threads];
+        int[] deleted = new int[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 20_000; i++) {
+                    int key = random.nextInt(256);
+                    if (random.nextBoolean()) {
+                        inserted[id] += (set.insert(key) ? 1 : 0);
+                    } else {
+                        deleted[id] += (set.delete(key) ? 1 : 0);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // every successful insert and delete is accounted for exactly once
+        long expected = Arrays.stream(inserted).sum() - Arrays.stream(deleted).sum();
+        Assert.assertEquals(expected, set.size());
+        Assert.assertEquals(expected, tree.snapshot().size());
+        Assert.assertEquals(threads * 20_000, set.getCombinedOperations() + set.getDirectOperations());
+        Assert.assertTrue(set.getCombinePasses() <= set.getCombinedOperations());
+        Assert.assertTrue(set.insert(1_000) && set.contains(1_000) && !set.insert(1_000));
+    }
+
+    @Test
+    public void aggregateTest() throws InterruptedException {
+        BinaryTree tree = new BinaryTree();
+        Random random = new Random(25);
+        TreeSet<Integer> expected = new TreeSet<>();
+        while (expected.size() < 100_000) {
+            int key = random.nextInt();
+            expected.add(key);
+            tree.insert(key);
+        }
+        int[] keys = expected.stream().mapToInt(Integer::intValue).toArray();
+        Assert.assertArrayEquals(keys, tree.stream().toArray());
+        Assert.assertArrayEquals(keys, tree.parallelStream().toArray());
+        Assert.assertEquals(Arrays.stream(keys).asLongStream().sum(), tree.sum());
+        Assert.assertEquals(expected.last().intValue(), tree.reduce(Integer.MIN_VALUE, Math::max));
+        Assert.assertEquals(expected.subSet(-1_000_000, 1_000_000_000).size(), tree.countInRange(-1_000_000, 1_000_000_000));
+        Assert.assertEquals(0, tree.countInRange(5, 5));
+
+        Spliterator.OfInt whole = tree.spliterator();
+        Spliterator.OfInt prefix = whole.trySplit();
+        Assert.assertNotNull(prefix);
+        int[] first = StreamSupport.intStream(prefix, false).toArray();
+        int[] rest = StreamSupport.intStream(whole, false).toArray();
+        Assert.assertTrue(first.length > 0 && rest.length > 0 && first[first.length - 1] < rest[0]);
+        Assert.assertEquals(keys.length, first.length + rest.length);
+
+        // the top of the int domain is only countable with an inclusive bound
+        Assert.assertTrue(tree.insert(Integer.MAX_VALUE));
+        Assert.assertEquals(expected.tailSet(0).size() + 1, tree.countInRangeClosed(0, Integer.MAX_VALUE));
+        Assert.assertEquals(1, tree.countInRangeClosed(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        Assert.assertEquals(0, tree.countInRangeClosed(1, 0));
+
+        // weakly consistent: keys present throughout are always counted
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            Random r = new Random(26);
+            while (!stop.get()) {
+                int key = 2 * r.nextInt(1_000) + 1;
+                if (r.nextBoolean()) {
+                    tree.insert(key);
+                } else {
+                    tree.delete(key);
+                }
+            }
+        });
+        for (int i = 0; i < 1_000; i++) {
+            tree.insert(2 * i);
+        }
+        writer.start();
+        try {
+            for (int round = 0; round < 20; round++) {
+                long even = tree.parallelStream().filter(k -> k >= 0 && k < 2_000 && k % 2 == 0).count();
+                Assert.assertEquals(1_000, even);
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        BinaryTree hashed = new BinaryTree(ContentionPolicy.SPIN, KeyOrder.HASHED);
+        IntStream.range(0, 10_000).forEach(hashed::insert);
+        Assert.assertArrayEquals(IntStream.range(0, 10_000).toArray(), hashed.parallelStream().sorted().toArray());
+        try {
+            hashed.countInRange(0, 10);
+            fail();
+        } catch (UnsupportedOperationException expectedFailure) {
+            // no ranges on scrambled keys
+        }
+    }
+
+    @Test
+    public void droppedTreeIsCollectedTest() throws Exception {
+        BinaryTree tree = new BinaryTree();
+        for (int i = 0; i < 100_000; i++) {
+            tree.insert(i * 7919);
+        }
+        tree.delete(7919);
+        tree.insertAll(new int[]{1, 2, 3});
+        WeakReference<BinaryTree> dropped = new WeakReference<>(tree);
+        tree = null;
+        // the thread's cursor must not keep the last tree it touched alive
+        for (int i = 0; i < 50 && dropped.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(dropped.get());
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            WeakReference<BinaryTree> recycling = churnOn(other,
+                    new BinaryTree(ContentionPolicy.SPIN, KeyOrder.NATURAL, true));
+            // nor may the live thread's node pool or retired nodes
+            for (int i = 0; i < 50 && recycling.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            Assert.assertNull(recycling.get());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void droppedOffHeapTreeIsCollectedTest() throws Exception {
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            WeakReference<OffHeapBinaryTree> dropped = churnOn(other, new OffHeapBinaryTree());
+            // the live thread's participant must not keep the tree alive
+            for (int i = 0; i < 50 && dropped.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            Assert.assertNull(dropped.get());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    /* Inserts and deletes on executor's thread, which stays alive, and lets
+     * go of tree. */
+    private static <T extends IntSet> WeakReference<T> churnOn(ExecutorService executor, T tree) throws Exception {
+        executor.submit(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                tree.insert(i);
+                tree.delete(i / 2);
+            }
+        }).get();
+        return new WeakReference<>(tree);
+    }
+}